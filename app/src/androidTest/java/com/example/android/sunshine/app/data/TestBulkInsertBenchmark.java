@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Times WeatherProvider.bulkInsert against the way it used to write rows: a ContentValues
+    insert per row, normalizing each date with a new Time.  Results go to logcat under this
+    class's tag; the assertions only check that both paths wrote the same rows.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    // Rows per location; 1000 days keeps every date well inside what Time can represent
+    private static final int DAYS_PER_LOCATION = 1000;
+    // Rows handed to a single bulkInsert call
+    private static final int CHUNK_SIZE = 1000;
+    private static final long MILLISECONDS_IN_A_DAY = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testBulkInsert14Rows() {
+        runBenchmark(14);
+    }
+
+    public void testBulkInsert1000Rows() {
+        runBenchmark(1000);
+    }
+
+    public void testBulkInsert100000Rows() {
+        runBenchmark(100000);
+    }
+
+    private void runBenchmark(int rowCount) {
+        long[] locationIds = insertLocations(rowCount);
+
+        long legacyNanos = insertWithContentValues(locationIds, rowCount);
+        assertEquals("Error: legacy path wrote the wrong number of rows",
+                rowCount, countWeatherRows());
+        deleteWeather();
+
+        long[] providerNanos = new long[1];
+        int written = insertWithProvider(locationIds, rowCount, providerNanos);
+        assertEquals("Error: bulkInsert reported the wrong number of rows", rowCount, written);
+        assertEquals("Error: bulkInsert wrote the wrong number of rows",
+                rowCount, countWeatherRows());
+
+        // The common sync case: the same forecast again
+        long[] unchangedNanos = new long[1];
+        written = insertWithProvider(locationIds, rowCount, unchangedNanos);
+        assertEquals("Error: unchanged rows were written again", 0, written);
+
+        Log.i(LOG_TAG, rowCount + " rows:"
+                + " ContentValues inserts " + formatMillis(legacyNanos)
+                + ", bulkInsert " + formatMillis(providerNanos[0])
+                + ", bulkInsert unchanged " + formatMillis(unchangedNanos[0]));
+    }
+
+    /**
+     * Writes the rows the way bulkInsert did before it had compiled statements.
+     *
+     * @return the time spent writing, in nanoseconds
+     */
+    private long insertWithContentValues(long[] locationIds, int rowCount) {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long elapsed = 0;
+        try {
+            for (int start = 0; start < rowCount; start += CHUNK_SIZE) {
+                ContentValues[] values = createWeatherValues(locationIds, start,
+                        Math.min(CHUNK_SIZE, rowCount - start));
+                long begin = System.nanoTime();
+                db.beginTransaction();
+                try {
+                    for (ContentValues value : values) {
+                        long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+                        value.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(date));
+                        db.insert(WeatherEntry.TABLE_NAME, null, value);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                elapsed += System.nanoTime() - begin;
+            }
+        } finally {
+            db.close();
+        }
+        return elapsed;
+    }
+
+    /**
+     * Writes the rows through the provider's bulkInsert.
+     *
+     * @return the number of rows bulkInsert reported as written
+     */
+    private int insertWithProvider(long[] locationIds, int rowCount, long[] elapsed) {
+        int written = 0;
+        for (int start = 0; start < rowCount; start += CHUNK_SIZE) {
+            ContentValues[] values = createWeatherValues(locationIds, start,
+                    Math.min(CHUNK_SIZE, rowCount - start));
+            long begin = System.nanoTime();
+            written += mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+            elapsed[0] += System.nanoTime() - begin;
+        }
+        return written;
+    }
+
+    private static ContentValues[] createWeatherValues(long[] locationIds, int start, int count) {
+        ContentValues[] returnContentValues = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            int row = start + i;
+            int day = row % DAYS_PER_LOCATION;
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationIds[row / DAYS_PER_LOCATION]);
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + day * MILLISECONDS_IN_A_DAY);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2 + 0.01 * (float) (day % 50));
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3 - 0.01 * (float) (day % 50));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + day % 20);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65 - day % 20);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5 + 0.2 * (float) (day % 10));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+            returnContentValues[i] = weatherValues;
+        }
+        return returnContentValues;
+    }
+
+    private long[] insertLocations(int rowCount) {
+        long[] locationIds = new long[(rowCount + DAYS_PER_LOCATION - 1) / DAYS_PER_LOCATION];
+        for (int i = 0; i < locationIds.length; i++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                    TestUtilities.TEST_LOCATION + "-" + i);
+            Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+            locationIds[i] = ContentUris.parseId(locationUri);
+            assertTrue(locationIds[i] != -1);
+        }
+        return locationIds;
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    private void deleteAllRecords() {
+        deleteWeather();
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static String formatMillis(long nanos) {
+        return (nanos / 1000000) + "ms";
+    }
+}
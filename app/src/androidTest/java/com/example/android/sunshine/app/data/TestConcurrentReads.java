@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Reads the forecast list from several threads, the way the UI, widgets, Muzei and Wear do,
+    while another thread keeps writing forecasts in transactions the way bulkInsert does.
+    Reports the p99 read latency with the rollback journal and with write-ahead logging.
+ */
+public class TestConcurrentReads extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestConcurrentReads.class.getSimpleName();
+
+    private static final int READER_THREADS = 4;
+    private static final int WRITE_TRANSACTIONS = 50;
+    private static final int DAYS = 1000;
+    private static final long MILLISECONDS_IN_A_DAY = 1000 * 60 * 60 * 24;
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testReadLatencyDuringWrites() throws Exception {
+        long journalP99 = measureP99ReadNanos(false);
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        long walP99 = measureP99ReadNanos(true);
+
+        Log.i(LOG_TAG, "p99 read latency during writes: rollback journal "
+                + (journalP99 / 1000) + "us, write-ahead logging " + (walP99 / 1000) + "us");
+    }
+
+    private long measureP99ReadNanos(boolean writeAheadLogging) throws Exception {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, writeAheadLogging);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        final long locationId = insertLocation(db);
+        writeForecast(db, locationId, 0);
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final CountDownLatch readersDone = new CountDownLatch(READER_THREADS);
+        final List<long[]> latencies = new ArrayList<>();
+        final Throwable[] failure = new Throwable[1];
+
+        for (int i = 0; i < READER_THREADS; i++) {
+            final long[] threadLatencies = new long[100000];
+            latencies.add(threadLatencies);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                            TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+                    WeatherProvider.Query query = WeatherProvider.buildQuery(db, uri,
+                            FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+                    int count = 0;
+                    try {
+                        while (writing.get() && count < threadLatencies.length - 1) {
+                            long start = System.nanoTime();
+                            Cursor cursor = query.run(db);
+                            // Reading the rows is what waits on the writer
+                            cursor.moveToLast();
+                            cursor.close();
+                            threadLatencies[++count] = System.nanoTime() - start;
+                        }
+                    } catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    } finally {
+                        // The number of samples goes in the first slot
+                        threadLatencies[0] = count;
+                        readersDone.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        try {
+            for (int i = 1; i <= WRITE_TRANSACTIONS; i++) {
+                writeForecast(db, locationId, i);
+            }
+        } finally {
+            writing.set(false);
+            readersDone.await();
+            helper.close();
+        }
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new AssertionError(failure[0]);
+            }
+        }
+
+        int samples = 0;
+        for (long[] threadLatencies : latencies) {
+            samples += (int) threadLatencies[0];
+        }
+        assertTrue("Error: no reads finished while writing", samples > 0);
+        long[] all = new long[samples];
+        int next = 0;
+        for (long[] threadLatencies : latencies) {
+            int count = (int) threadLatencies[0];
+            System.arraycopy(threadLatencies, 1, all, next, count);
+            next += count;
+        }
+        Arrays.sort(all);
+        return all[Math.min(samples - 1, (int) (samples * 0.99))];
+    }
+
+    /**
+     * Rewrites every day of the forecast in one transaction, changing each row so that none of
+     * the writes can be skipped.
+     */
+    private static void writeForecast(SQLiteDatabase db, long locationId, int generation) {
+        WeatherBulkWriter writer = new WeatherBulkWriter(db);
+        db.beginTransaction();
+        try {
+            for (int day = 0; day < DAYS; day++) {
+                ContentValues values = new ContentValues();
+                values.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                values.put(WeatherEntry.COLUMN_DATE,
+                        TestUtilities.TEST_DATE + day * MILLISECONDS_IN_A_DAY);
+                values.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+                values.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+                values.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + generation);
+                values.put(WeatherEntry.COLUMN_MIN_TEMP, 65 - generation);
+                values.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+                values.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+                values.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+                writer.write(values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            writer.close();
+            db.endTransaction();
+        }
+    }
+
+    private static long insertLocation(SQLiteDatabase db) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        long locationId = db.insert(LocationEntry.TABLE_NAME, null, values);
+        assertTrue(locationId != -1);
+        return locationId;
+    }
+}
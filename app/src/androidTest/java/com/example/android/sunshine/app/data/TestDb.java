@@ -20,6 +20,7 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
+import java.util.Arrays;
 import java.util.HashSet;
 
 public class TestDb extends AndroidTestCase {
@@ -55,6 +56,7 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.SyncMetricsEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -105,6 +107,51 @@ public class TestDb extends AndroidTestCase {
         db.close();
     }
 
+    /*
+        WeatherBulkWriter's fast path takes a row with every WeatherSql.ROW_COLUMNS value as
+        complete; check that is every weather column but the id, in the contract and in the table.
+     */
+    public void testWeatherSqlCoversWeatherTable() {
+        // WeatherTables spells out the id column, which BaseColumns defines on Android
+        assertEquals(WeatherContract.WeatherEntry._ID, WeatherTables.COLUMN_ID);
+
+        final HashSet<String> weatherColumnHashSet = new HashSet<String>();
+        weatherColumnHashSet.add(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        weatherColumnHashSet.add(WeatherContract.WeatherEntry.COLUMN_DATE);
+        weatherColumnHashSet.add(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        weatherColumnHashSet.add(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+        weatherColumnHashSet.add(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        weatherColumnHashSet.add(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        weatherColumnHashSet.add(WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+        weatherColumnHashSet.add(WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+        weatherColumnHashSet.add(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+        weatherColumnHashSet.add(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+
+        // A complete row is every column but the id
+        assertEquals("Error: WeatherSql.ROW_COLUMNS don't match the weather entry columns",
+                weatherColumnHashSet, new HashSet<String>(Arrays.asList(WeatherSql.ROW_COLUMNS)));
+        assertEquals(WeatherSql.ROW_COLUMNS.length, weatherColumnHashSet.size());
+
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        SQLiteDatabase db = new WeatherDbHelper(
+                this.mContext).getWritableDatabase();
+        Cursor c = db.rawQuery("PRAGMA table_info(" + WeatherContract.WeatherEntry.TABLE_NAME + ")",
+                null);
+        assertTrue("Error: There is no weather entry table", c.moveToFirst());
+
+        final HashSet<String> tableColumnHashSet = new HashSet<String>();
+        int columnNameIndex = c.getColumnIndex("name");
+        do {
+            tableColumnHashSet.add(c.getString(columnNameIndex));
+        } while (c.moveToNext());
+        c.close();
+
+        weatherColumnHashSet.add(WeatherContract.WeatherEntry._ID);
+        assertEquals("Error: The weather table doesn't have the weather entry columns",
+                weatherColumnHashSet, tableColumnHashSet);
+        db.close();
+    }
+
     /*
         Students:  Here is where you will build code to test that we can insert and query the
         location database.  We've done a lot of work for you.  You'll want to look in TestUtilities
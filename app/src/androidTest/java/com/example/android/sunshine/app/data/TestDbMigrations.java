@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Upgrades databases built with every past schema and checks they end up with the schema
+    onCreate builds today, keeping their data.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbMigrations.class.getSimpleName();
+
+    private static final long MILLISECONDS_IN_A_DAY = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testMigrationsCoverEveryVersion() {
+        int expectedVersion = WeatherDbHelper.OLDEST_MIGRATABLE_VERSION + 1;
+        for (WeatherDbHelper.Migration migration : WeatherDbHelper.MIGRATIONS) {
+            assertEquals("Error: migrations must go one version at a time",
+                    expectedVersion, migration.toVersion);
+            expectedVersion++;
+        }
+        assertEquals("Error: no migration to the current version",
+                WeatherDbHelper.DATABASE_VERSION + 1, expectedVersion);
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        SQLiteDatabase current = new WeatherDbHelper(mContext).getWritableDatabase();
+        List<String> currentSchema = describeSchema(current);
+        current.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+
+        for (int version = 1; version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            SQLiteDatabase db = openRawDatabase();
+            createHistoricalSchema(db, version);
+            boolean keepsData = version >= WeatherDbHelper.OLDEST_MIGRATABLE_VERSION;
+            if (keepsData) {
+                insertRows(db, 1, 14);
+            }
+            db.setVersion(version);
+            db.close();
+
+            db = new WeatherDbHelper(mContext).getWritableDatabase();
+            assertEquals("Error: upgrade from version " + version + " left the wrong schema",
+                    currentSchema, describeSchema(db));
+            if (keepsData) {
+                assertEquals("Error: upgrade from version " + version + " lost the forecast",
+                        14, countRows(db, WeatherContract.WeatherEntry.TABLE_NAME));
+                assertEquals("Error: upgrade from version " + version + " lost the location",
+                        1, countRows(db, WeatherContract.LocationEntry.TABLE_NAME));
+            }
+            db.close();
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        }
+    }
+
+    public void testUpgradeStaysWithinBudget() {
+        // A user tracking a lot of locations, with a lot of history
+        SQLiteDatabase db = openRawDatabase();
+        createHistoricalSchema(db, WeatherDbHelper.OLDEST_MIGRATABLE_VERSION);
+        insertRows(db, 25, 1000);
+        db.setVersion(WeatherDbHelper.OLDEST_MIGRATABLE_VERSION);
+        db.close();
+
+        long start = SystemClock.elapsedRealtime();
+        db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long upgradeMillis = SystemClock.elapsedRealtime() - start;
+        db.close();
+
+        Log.i(LOG_TAG, "Upgrading 25000 rows took " + upgradeMillis + "ms");
+        assertTrue("Error: upgrade took " + upgradeMillis + "ms",
+                upgradeMillis < WeatherDbHelper.MIGRATION_BUDGET_MS);
+    }
+
+    /**
+     * Builds the schema a past version of the app created.  These are frozen copies: they must
+     * not use the constants in WeatherContract, which describe the current schema.  Add the
+     * schema being replaced here whenever DATABASE_VERSION goes up.
+     */
+    private static void createHistoricalSchema(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 1:
+                // Anything older than version 2 gets thrown away; all that matters is that
+                // there is something to throw away
+                db.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY, date TEXT);");
+                db.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT);");
+                return;
+            case 2:
+                db.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY," +
+                        "location_setting TEXT UNIQUE NOT NULL, " +
+                        "city_name TEXT NOT NULL, " +
+                        "coord_lat REAL NOT NULL, " +
+                        "coord_long REAL NOT NULL );");
+                db.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        "location_id INTEGER NOT NULL, " +
+                        "date INTEGER NOT NULL, " +
+                        "short_desc TEXT NOT NULL, " +
+                        "weather_id INTEGER NOT NULL," +
+                        "min REAL NOT NULL, " +
+                        "max REAL NOT NULL, " +
+                        "humidity REAL NOT NULL, " +
+                        "pressure REAL NOT NULL, " +
+                        "wind REAL NOT NULL, " +
+                        "degrees REAL NOT NULL, " +
+                        " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                        " UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+                return;
+            case 3:
+                createHistoricalSchema(db, 2);
+                db.execSQL("CREATE INDEX IF NOT EXISTS weather_location_date ON weather (" +
+                        "location_id, date, weather_id, short_desc, max, min);");
+                return;
+            default:
+                fail("Error: no schema recorded for database version " + version);
+        }
+    }
+
+    // Written with the version 2 column names, which every migratable version has
+    private static void insertRows(SQLiteDatabase db, int locations, int days) {
+        db.beginTransaction();
+        try {
+            for (int location = 1; location <= locations; location++) {
+                db.execSQL("INSERT INTO location (_id, location_setting, city_name, coord_lat, " +
+                                "coord_long) VALUES (?, ?, 'North Pole', 64.7488, -147.353)",
+                        new Object[]{location, TestUtilities.TEST_LOCATION + "-" + location});
+                for (int day = 0; day < days; day++) {
+                    db.execSQL("INSERT INTO weather (location_id, date, short_desc, weather_id, " +
+                                    "min, max, humidity, pressure, wind, degrees) " +
+                                    "VALUES (?, ?, 'Asteroids', 321, 65, 75, 1.2, 1.3, 5.5, 1.1)",
+                            new Object[]{location,
+                                    TestUtilities.TEST_DATE + day * MILLISECONDS_IN_A_DAY});
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private SQLiteDatabase openRawDatabase() {
+        return SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+    }
+
+    /**
+     * Describes every table's columns and every index's columns, in a form that doesn't depend
+     * on how the CREATE statements were written.
+     */
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor tables = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' " +
+                "AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        while (tables.moveToNext()) {
+            String table = tables.getString(0);
+            Cursor columns = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            while (columns.moveToNext()) {
+                schema.add(table + " column " +
+                        columns.getString(columns.getColumnIndex("name")) + " " +
+                        columns.getString(columns.getColumnIndex("type")) +
+                        " notnull=" + columns.getInt(columns.getColumnIndex("notnull")) +
+                        " pk=" + columns.getInt(columns.getColumnIndex("pk")));
+            }
+            columns.close();
+
+            Cursor indexes = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            while (indexes.moveToNext()) {
+                String index = indexes.getString(indexes.getColumnIndex("name"));
+                StringBuilder description = new StringBuilder(table).append(" index")
+                        .append(" unique=")
+                        .append(indexes.getInt(indexes.getColumnIndex("unique")));
+                // Implicit indexes are named by position, so describe them by their columns
+                if (!index.startsWith("sqlite_")) {
+                    description.append(' ').append(index);
+                }
+                Cursor indexColumns = db.rawQuery("PRAGMA index_info(" + index + ")", null);
+                while (indexColumns.moveToNext()) {
+                    description.append(' ')
+                            .append(indexColumns.getString(indexColumns.getColumnIndex("name")));
+                }
+                indexColumns.close();
+                schema.add(description.toString());
+            }
+            indexes.close();
+        }
+        tables.close();
+        Collections.sort(schema);
+        return schema;
+    }
+
+    private static int countRows(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT count(*) FROM " + table, null);
+        cursor.moveToFirst();
+        int count = cursor.getInt(0);
+        cursor.close();
+        return count;
+    }
+}
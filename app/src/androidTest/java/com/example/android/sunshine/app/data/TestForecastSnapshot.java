@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    private static final long MILLISECONDS_IN_A_DAY = 1000 * 60 * 60 * 24;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        ForecastSnapshot.invalidate();
+
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(mLocationRowId));
+    }
+
+    public void testSnapshotMatchesDatabase() {
+        ForecastSnapshot snapshot =
+                ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        ContentValues[] expected = TestProvider.createBulkInsertWeatherValues(mLocationRowId);
+        assertEquals(expected.length, snapshot.getDayCount());
+        for (int i = 0; i < expected.length; i++) {
+            ForecastSnapshot.Day day = snapshot.getDay(i);
+            assertEquals(WeatherContract.normalizeDate(
+                    expected[i].getAsLong(WeatherEntry.COLUMN_DATE)), day.date);
+            assertEquals(expected[i].getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    day.description);
+            assertEquals(expected[i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), day.maxTemp);
+            assertEquals(expected[i].getAsDouble(WeatherEntry.COLUMN_MIN_TEMP), day.minTemp);
+            assertEquals((int) expected[i].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    day.weatherId);
+        }
+    }
+
+    public void testDayLookups() {
+        ForecastSnapshot snapshot =
+                ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        long thirdDay = TestUtilities.TEST_DATE + 2 * MILLISECONDS_IN_A_DAY;
+        assertEquals(2, snapshot.getFirstPositionFrom(thirdDay));
+        assertSame(snapshot.getDay(2), snapshot.getDayOn(thirdDay));
+        assertSame(snapshot.getDay(0),
+                snapshot.getFirstDayFrom(TestUtilities.TEST_DATE - 30 * MILLISECONDS_IN_A_DAY));
+        assertNull(snapshot.getDayOn(TestUtilities.TEST_DATE - MILLISECONDS_IN_A_DAY));
+        assertNull(snapshot.getFirstDayFrom(TestUtilities.TEST_DATE + 30 * MILLISECONDS_IN_A_DAY));
+    }
+
+    public void testSnapshotIsCachedUntilTheProviderWrites() {
+        ForecastSnapshot snapshot =
+                ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        assertSame("Error: snapshot was read again without a write",
+                snapshot, ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION));
+
+        // Writing the same forecast again changes nothing, so the snapshot stays
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                TestProvider.createBulkInsertWeatherValues(mLocationRowId));
+        assertSame(snapshot, ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION));
+
+        ContentValues[] changed = TestProvider.createBulkInsertWeatherValues(mLocationRowId);
+        changed[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, changed);
+        ForecastSnapshot updated = ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        assertNotSame("Error: snapshot outlived a write", snapshot, updated);
+        assertEquals("Meteors", updated.getDay(0).description);
+    }
+
+    public void testPublishReplacesSnapshot() {
+        ForecastSnapshot snapshot =
+                ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        ForecastSnapshot published =
+                ForecastSnapshot.publish(mContext, TestUtilities.TEST_LOCATION);
+        assertNotSame(snapshot, published);
+        assertSame(published, ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION));
+    }
+
+    public void testPublishDoesNotKeepSnapshotOlderThanAWrite() {
+        ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        // A publish that has begun reading when a write commits
+        int generation = ForecastSnapshot.getGeneration();
+        ContentValues[] changed = TestProvider.createBulkInsertWeatherValues(mLocationRowId);
+        changed[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, changed);
+
+        ForecastSnapshot published = ForecastSnapshot.publish(mContext,
+                TestUtilities.TEST_LOCATION, generation);
+        ForecastSnapshot served = ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        assertNotSame("Error: a publish that raced a write was kept", published, served);
+        assertEquals("Meteors", served.getDay(0).description);
+    }
+}
@@ -16,6 +16,8 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -28,8 +30,11 @@ import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -160,6 +165,11 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/sync_metrics/
+        type = mContext.getContentResolver().getType(SyncMetricsEntry.CONTENT_URI);
+        assertEquals("Error: the SyncMetricsEntry CONTENT_URI should return SyncMetricsEntry.CONTENT_TYPE",
+                SyncMetricsEntry.CONTENT_TYPE, type);
     }
 
 
@@ -512,4 +522,205 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // Make sure a batch of operations spanning weather rows and a delete lands in one go and
+    // observers hear about it.
+    public void testApplyBatch() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues values : weatherValues) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .build());
+        }
+        // Prune the first day again, as the sync adapter does with old data
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(
+                                WeatherContract.normalizeDate(TestUtilities.TEST_DATE))})
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: applyBatch did not insert and prune the expected rows",
+                BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.close();
+    }
+
+    // Make sure re-inserting a forecast only writes the days that changed, and that changed days
+    // keep their row ids.
+    public void testBulkInsertSkipsUnchangedRows() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, insertCount);
+        long[] originalIds = queryWeatherIds();
+
+        // The same forecast again writes nothing
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: unchanged rows were written again", 0, insertCount);
+
+        // Inserting an unchanged day on its own still returns the row's plain URI
+        Uri rowUri = mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId)[0]);
+        assertEquals(WeatherEntry.buildWeatherUri(originalIds[0]), rowUri);
+
+        // One changed day writes one row, in place
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                changedValues);
+        assertEquals("Error: expected exactly one changed row", 1, insertCount);
+
+        long[] ids = queryWeatherIds();
+        assertEquals(originalIds.length, ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals("Error: row id changed for day " + i, originalIds[i], ids[i]);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_SHORT_DESC},
+                WeatherEntry._ID + " = ?",
+                new String[]{Long.toString(ids[3])},
+                null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Meteors", cursor.getString(0));
+        cursor.close();
+    }
+
+    // Sync metrics can be appended and read but never changed, and only the latest runs are kept.
+    public void testSyncMetrics() {
+        deleteSyncMetrics();
+        int runs = SyncMetricsEntry.MAX_RUNS + 5;
+        for (int run = 1; run <= runs; run++) {
+            ContentValues[] values = new ContentValues[2];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new ContentValues();
+                values[i].put(SyncMetricsEntry.COLUMN_RUN_ID, run);
+                values[i].put(SyncMetricsEntry.COLUMN_STAGE,
+                        i == 0 ? SyncMetricsEntry.STAGE_PARSE : SyncMetricsEntry.STAGE_TOTAL);
+                values[i].put(SyncMetricsEntry.COLUMN_DURATION, 1000 * run);
+            }
+            assertEquals(values.length, mContext.getContentResolver().bulkInsert(
+                    SyncMetricsEntry.CONTENT_URI, values));
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                SyncMetricsEntry.CONTENT_URI,
+                new String[]{SyncMetricsEntry.COLUMN_RUN_ID},
+                null,
+                null,
+                SyncMetricsEntry.COLUMN_RUN_ID + " ASC");
+        assertEquals("Error: sync metrics were not trimmed to the latest runs",
+                SyncMetricsEntry.MAX_RUNS * 2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the wrong runs were trimmed", runs - SyncMetricsEntry.MAX_RUNS + 1,
+                cursor.getLong(0));
+        cursor.close();
+
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_DURATION, 0);
+        try {
+            mContext.getContentResolver().update(SyncMetricsEntry.CONTENT_URI, values, null, null);
+            fail("Error: sync metrics were updated");
+        } catch (UnsupportedOperationException expected) {
+        }
+        try {
+            mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+            fail("Error: sync metrics were deleted");
+        } catch (UnsupportedOperationException expected) {
+        }
+        deleteSyncMetrics();
+    }
+
+    // Location ids are cached, and every location write through the provider drops them, so
+    // weather queries by location setting never filter on an id that has gone.
+    public void testLocationIdCache() {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+        assertEquals(locationRowId,
+                LocationIdCache.get(mContext, TestUtilities.TEST_LOCATION));
+
+        // Renamed: the old setting is gone, the new one has the same id
+        ContentValues updatedValues = new ContentValues(values);
+        updatedValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "99706");
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, updatedValues,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+        assertEquals(-1, LocationIdCache.get(mContext, TestUtilities.TEST_LOCATION));
+        assertEquals(locationRowId, LocationIdCache.get(mContext, "99706"));
+
+        // Added again under a new id, with weather that has to be found by it
+        deleteAllRecordsFromProvider();
+        long newLocationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(newLocationRowId));
+        assertEquals(newLocationRowId,
+                LocationIdCache.get(mContext, TestUtilities.TEST_LOCATION));
+
+        // Without location columns the weather table is read on its own, with them it's joined
+        String[][] projections = {
+                new String[]{WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID},
+                new String[]{WeatherEntry.COLUMN_DATE, LocationEntry.COLUMN_CITY_NAME},
+                null
+        };
+        for (String[] projection : projections) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                    projection, null, null, null);
+            assertEquals("Error: weather not found by its location's new id",
+                    1, cursor.getCount());
+            cursor.close();
+        }
+    }
+
+    // The provider won't delete metrics, so go around it
+    private void deleteSyncMetrics() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        db.delete(SyncMetricsEntry.TABLE_NAME, null, null);
+        db.close();
+    }
+
+    private long[] queryWeatherIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the queries the app makes through each WeatherProvider URI, with
+    the projections and selections it actually uses, and fails if any of them scans a table.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    // Same as ForecastFragment.FORECAST_COLUMNS
+    private static final String[] FORECAST_LIST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // Same as DetailWidgetRemoteViewsService.FORECAST_COLUMNS
+    private static final String[] WIDGET_LIST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    // Same as DetailFragment.DETAIL_COLUMNS
+    private static final String[] DETAIL_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    // The stages of the latest run, as TestSyncStatus reads them
+    private static final String LATEST_RUN_SELECTION = SyncMetricsEntry.COLUMN_RUN_ID
+            + " = (SELECT max(" + SyncMetricsEntry.COLUMN_RUN_ID + ") FROM "
+            + SyncMetricsEntry.TABLE_NAME + ")";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testForecastListIsIndexOnly() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        for (String[] projection : new String[][]{FORECAST_LIST_COLUMNS, WIDGET_LIST_COLUMNS}) {
+            List<String> plan = explain(uri, projection, null, null, SORT_BY_DATE);
+            assertNoScans(uri, plan);
+            assertTrue("Error: the forecast list reads the weather table: " + plan,
+                    planUses(plan, "COVERING INDEX " + WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE));
+            assertFalse("Error: the forecast list is sorted after the fact: " + plan,
+                    planUses(plan, "TEMP B-TREE"));
+        }
+    }
+
+    public void testWeatherWithLocationQueries() {
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        assertNoScans(uri, explain(uri, FORECAST_LIST_COLUMNS, null, null, SORT_BY_DATE));
+        assertNoScans(uri, explain(uri, null, null, null, null));
+    }
+
+    public void testLocationIsOnlyJoinedForItsColumns() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        List<String> plan = explain(uri, WIDGET_LIST_COLUMNS, null, null, SORT_BY_DATE);
+        assertFalse("Error: the location table is read without any of its columns: " + plan,
+                readsLocation(plan));
+        plan = explain(uri, FORECAST_LIST_COLUMNS, null, null, SORT_BY_DATE);
+        assertTrue("Error: the location columns aren't joined in: " + plan, readsLocation(plan));
+        plan = explain(uri, null, null, null, null);
+        assertTrue("Error: all columns don't include the location's: " + plan,
+                readsLocation(plan));
+    }
+
+    public void testWeatherWithLocationAndDateQueries() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        assertNoScans(uri, explain(uri, DETAIL_COLUMNS, null, null, null));
+        // The sync's check for today's row
+        assertNoScans(uri, explain(uri,
+                new String[]{WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID}, null, null, null));
+    }
+
+    public void testWeatherQueries() {
+        Uri uri = WeatherEntry.CONTENT_URI;
+        assertNoScans(uri, explain(uri, null,
+                WeatherEntry._ID + " = ?", new String[]{"1"}, null));
+        assertNoScans(uri, explain(uri, null,
+                WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(TestUtilities.TEST_DATE)}, null));
+    }
+
+    public void testLocationQueries() {
+        Uri uri = LocationEntry.CONTENT_URI;
+        assertNoScans(uri, explain(uri, new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION}, null));
+    }
+
+    public void testSyncMetricsQueries() {
+        Uri uri = SyncMetricsEntry.CONTENT_URI;
+        String[] projection = {SyncMetricsEntry.COLUMN_STAGE, SyncMetricsEntry.COLUMN_BYTES};
+        List<String> plan = explain(uri, projection, LATEST_RUN_SELECTION, null, null);
+        assertNoScans(uri, plan);
+        assertTrue("Error: the latest run isn't looked up by run: " + plan,
+                planUses(plan, "INDEX " + WeatherDbHelper.INDEX_SYNC_METRICS_RUN));
+
+        plan = explain(uri, projection, SyncMetricsEntry.COLUMN_RUN_ID + " = ?",
+                new String[]{"1"}, null);
+        assertNoScans(uri, plan);
+        assertTrue("Error: a run isn't looked up by run: " + plan,
+                planUses(plan, "INDEX " + WeatherDbHelper.INDEX_SYNC_METRICS_RUN));
+    }
+
+    // Runs on every metrics insert
+    public void testSyncMetricsTrimUsesIndex() {
+        List<String> plan = explain(WeatherProvider.SQL_TRIM_SYNC_METRICS, null);
+        // Finding the oldest run to keep walks the run index from its newest end, and stops
+        // after MAX_RUNS runs; it never reads the table
+        for (String step : plan) {
+            assertFalse("Error: trimming the sync metrics scans the table: " + plan,
+                    step.startsWith("SCAN") && !step.contains("COVERING INDEX "
+                            + WeatherDbHelper.INDEX_SYNC_METRICS_RUN));
+        }
+        assertTrue("Error: the old runs aren't found by run: " + plan,
+                planUses(plan, "SEARCH") && planUses(plan,
+                        "USING INDEX " + WeatherDbHelper.INDEX_SYNC_METRICS_RUN));
+    }
+
+    private List<String> explain(Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
+        WeatherProvider.Query query = WeatherProvider.buildQuery(
+                mDb, uri, projection, selection, selectionArgs, sortOrder);
+        List<String> plan = explain(query.toSql(), query.selectionArgs);
+        assertFalse("Error: no query plan for " + uri, plan.isEmpty());
+        return plan;
+    }
+
+    private List<String> explain(String sql, String[] selectionArgs) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        List<String> plan = new ArrayList<>();
+        int detailColumn = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailColumn));
+        }
+        cursor.close();
+        assertFalse("Error: no query plan for " + sql, plan.isEmpty());
+        return plan;
+    }
+
+    private static void assertNoScans(Uri uri, List<String> plan) {
+        for (String step : plan) {
+            // "SCAN TABLE x" on older SQLite, "SCAN x" on newer ones
+            assertFalse("Error: " + uri + " falls back to a full scan: " + plan,
+                    step.startsWith("SCAN"));
+        }
+    }
+
+    private static boolean readsLocation(List<String> plan) {
+        for (String step : plan) {
+            // "SEARCH TABLE location ..." on older SQLite, "SEARCH location ..." on newer ones
+            if (step.matches("(SEARCH|SCAN)( TABLE)? " + LocationEntry.TABLE_NAME + "\\b.*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean planUses(List<String> plan, String text) {
+        for (String step : plan) {
+            if (step.contains(text)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
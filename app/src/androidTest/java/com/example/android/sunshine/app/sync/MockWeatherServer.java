@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    A stand-in for the OpenWeatherMap daily forecast API on a loopback socket.  Point
+    ForecastFetcher at getBaseUrl() and every sync talks to this instead of the network.
+    Responses are set per location query, with a default for everything else, and can be
+    delayed, dribbled out slowly, gzipped or cut off part way through the body.  Responses can
+    also be queued, to be served once each before any of the others.
+ */
+class MockWeatherServer {
+
+    private static final String LOG_TAG = MockWeatherServer.class.getSimpleName();
+
+    // What OpenWeatherMap sends back for a location it doesn't know
+    static final String NOT_FOUND_BODY = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+
+    private static final String HEADER_ACCEPT_ENCODING = "accept-encoding:";
+
+    // Bytes written at a time when a response is sent slowly
+    private static final int SLOW_CHUNK_SIZE = 256;
+
+    /**
+     * One canned response.
+     */
+    static class Response {
+        final int httpStatus;
+        // As sent, so compressed if the response is gzipped
+        byte[] body;
+        // Content-Encoding header, or null for none
+        String contentEncoding;
+        // Time to wait before sending anything, in milliseconds
+        long latencyMillis;
+        // Pause between each SLOW_CHUNK_SIZE bytes of the body, in milliseconds
+        long chunkDelayMillis;
+        // Bytes of the body to send before dropping the connection, or -1 to send all of it.
+        // The full length is still announced.
+        int truncateAt = -1;
+
+        Response(int httpStatus, String body) {
+            this.httpStatus = httpStatus;
+            try {
+                this.body = body.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        Response withLatency(long latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            return this;
+        }
+
+        Response slowly(long chunkDelayMillis) {
+            this.chunkDelayMillis = chunkDelayMillis;
+            return this;
+        }
+
+        Response truncatedAt(int truncateAt) {
+            this.truncateAt = truncateAt;
+            return this;
+        }
+
+        Response gzipped() {
+            try {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                gzip.write(body);
+                gzip.close();
+                body = compressed.toByteArray();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            contentEncoding = "gzip";
+            return this;
+        }
+    }
+
+    /**
+     * A successful response with a forecast of the given number of days.  Different variants
+     * give different temperatures, so a sync sees them as a changed forecast.
+     */
+    static Response forecast(String cityName, int days, int variant) {
+        return new Response(200, createForecastJson(cityName, days, variant));
+    }
+
+    /**
+     * The OpenWeatherMap "city not found" response: HTTP 200 with a "cod" of 404 in the body.
+     */
+    static Response notFound() {
+        return new Response(200, NOT_FOUND_BODY);
+    }
+
+    static String createForecastJson(String cityName, int days, int variant) {
+        StringBuilder json = new StringBuilder(300 * days);
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"").append(cityName)
+                .append("\",\"coord\":{\"lon\":-122.0838,\"lat\":37.386},\"country\":\"US\"")
+                .append(",\"population\":0},\"cod\":\"200\",\"message\":0.0123,\"cnt\":")
+                .append(days).append(",\"list\":[");
+        long dt = 1419069600L;
+        for (int i = 0; i < days; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            double max = 20 + i % 7 + variant;
+            double min = 10 + i % 5;
+            json.append("{\"dt\":").append(dt + i * 86400L)
+                    .append(",\"temp\":{\"day\":").append(max - 1)
+                    .append(",\"min\":").append(min)
+                    .append(",\"max\":").append(max)
+                    .append(",\"night\":").append(min + 1)
+                    .append(",\"eve\":").append(max - 2)
+                    .append(",\"morn\":").append(min + 2)
+                    .append("},\"pressure\":").append(1010 + i)
+                    .append(",\"humidity\":").append(60 + i % 30)
+                    .append(",\"weather\":[{\"id\":").append(i % 2 == 0 ? 800 : 500)
+                    .append(",\"main\":\"").append(i % 2 == 0 ? "Clear" : "Rain")
+                    .append("\",\"description\":\"").append(i % 2 == 0 ? "sky is clear" : "light rain")
+                    .append("\",\"icon\":\"01d\"}],\"speed\":").append(3 + i % 4)
+                    .append(",\"deg\":").append((i * 45) % 360)
+                    .append(",\"clouds\":0}");
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private final ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Map<String, Response> mResponses = new ConcurrentHashMap<String, Response>();
+    private final Queue<Response> mQueuedResponses = new ConcurrentLinkedQueue<Response>();
+    private volatile Response mDefaultResponse = notFound();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+    private volatile String mAcceptEncoding;
+
+    MockWeatherServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /**
+     * The base URL to hand to ForecastFetcher.setBaseUrl.
+     */
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/data/2.5/";
+    }
+
+    /**
+     * Sets the response for every location query without one of its own.
+     */
+    void setDefaultResponse(Response response) {
+        mDefaultResponse = response;
+    }
+
+    void setResponse(String locationQuery, Response response) {
+        mResponses.put(locationQuery, response);
+    }
+
+    /**
+     * Serves a response to the next request, whatever it asks for.  Queued responses go out in
+     * the order they were queued.
+     */
+    void enqueue(Response response) {
+        mQueuedResponses.add(response);
+    }
+
+    /**
+     * Returns the number of requests served so far.
+     */
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * Returns the number of connections accepted so far.  Fewer than the number of requests
+     * means connections were reused.
+     */
+    int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    /**
+     * Returns the Accept-Encoding header of the latest request that had one.
+     */
+    String getAcceptEncoding() {
+        return mAcceptEncoding;
+    }
+
+    void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing server socket", e);
+        }
+        mExecutor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Closed by shutdown
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+        }
+    }
+
+    /**
+     * Answers requests on one connection until the client closes it.
+     */
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = in.readLine()) != null) {
+                // Only GET requests come this way, so there is never a body to skip
+                String header;
+                while ((header = in.readLine()) != null && header.length() > 0) {
+                    if (header.toLowerCase(Locale.US).startsWith(HEADER_ACCEPT_ENCODING)) {
+                        mAcceptEncoding = header.substring(HEADER_ACCEPT_ENCODING.length()).trim();
+                    }
+                }
+                mRequestCount.incrementAndGet();
+                if (!respond(out, getResponse(requestLine))) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Connection ended: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing socket", e);
+            }
+        }
+    }
+
+    private Response getResponse(String requestLine) {
+        Response queued = mQueuedResponses.poll();
+        if (queued != null) {
+            return queued;
+        }
+        // GET /data/2.5/forecast/daily?q=94043&mode=json... HTTP/1.1
+        String[] parts = requestLine.split(" ");
+        if (parts.length >= 2) {
+            String locationQuery = Uri.parse(parts[1]).getQueryParameter("q");
+            if (locationQuery != null) {
+                Response response = mResponses.get(locationQuery);
+                if (response != null) {
+                    return response;
+                }
+            }
+        }
+        return mDefaultResponse;
+    }
+
+    /**
+     * Writes a response.
+     *
+     * @return whether the connection can be used for another request
+     */
+    private static boolean respond(OutputStream out, Response response)
+            throws IOException, InterruptedException {
+        if (response.latencyMillis > 0) {
+            Thread.sleep(response.latencyMillis);
+        }
+        String head = String.format(Locale.US,
+                "HTTP/1.1 %d %s\r\nContent-Type: application/json; charset=utf-8\r\n"
+                        + "%sContent-Length: %d\r\n\r\n",
+                response.httpStatus, getReasonPhrase(response.httpStatus),
+                response.contentEncoding != null
+                        ? "Content-Encoding: " + response.contentEncoding + "\r\n" : "",
+                response.body.length);
+        out.write(head.getBytes("ISO-8859-1"));
+
+        int length = response.truncateAt >= 0
+                ? Math.min(response.truncateAt, response.body.length) : response.body.length;
+        if (response.chunkDelayMillis > 0) {
+            for (int offset = 0; offset < length; offset += SLOW_CHUNK_SIZE) {
+                out.write(response.body, offset, Math.min(SLOW_CHUNK_SIZE, length - offset));
+                out.flush();
+                Thread.sleep(response.chunkDelayMillis);
+            }
+        } else {
+            out.write(response.body, 0, length);
+        }
+        out.flush();
+        return length == response.body.length;
+    }
+
+    private static String getReasonPhrase(int httpStatus) {
+        switch (httpStatus) {
+            case 200:
+                return "OK";
+            case 304:
+                return "Not Modified";
+            case 404:
+                return "Not Found";
+            case 429:
+                return "Too Many Requests";
+            case 500:
+                return "Internal Server Error";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Status";
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/*
+    Helpers for running the sync adapter against a MockWeatherServer.
+ */
+class SyncTestUtilities {
+    // Doesn't collide with anything a user would have set
+    static final String TEST_LOCATION_QUERY = "mock-94043";
+    static final String TEST_CITY_NAME = "Mountain View";
+    // Retries without the real delays, so failing syncs don't slow the tests down
+    static final RetryPolicy TEST_RETRY_POLICY = new RetryPolicy(3, 1, 5);
+
+    /**
+     * Makes the test location the preferred one and forgets every stored forecast and response,
+     * so the next sync starts cold.  The circuit breaker starts closed.
+     */
+    static void setUpSync(Context context) {
+        deleteAllRecords(context);
+        context.getSharedPreferences(ForecastResponseCache.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        context.getSharedPreferences(CircuitBreaker.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        ForecastFetcher.setRetryPolicy(TEST_RETRY_POLICY);
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putString(context.getString(R.string.pref_location_key), TEST_LOCATION_QUERY)
+                .putInt(context.getString(R.string.pref_location_status_key),
+                        SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
+                .commit();
+    }
+
+    static void tearDownSync(Context context) {
+        ForecastFetcher.setBaseUrl(null);
+        ForecastFetcher.setRetryPolicy(null);
+        context.getSharedPreferences(CircuitBreaker.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        deleteAllRecords(context);
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .remove(context.getString(R.string.pref_location_key))
+                .remove(context.getString(R.string.pref_location_status_key))
+                .commit();
+    }
+
+    /**
+     * Runs one sync of the preferred location on the calling thread, the way the sync manager
+     * would, and returns what it reported back.
+     */
+    static SyncResult performSync(SunshineSyncAdapter syncAdapter, boolean manual) {
+        Bundle extras = new Bundle();
+        extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, manual);
+        SyncResult syncResult = new SyncResult();
+        syncAdapter.onPerformSync(null, extras, WeatherContract.CONTENT_AUTHORITY, null,
+                syncResult);
+        return syncResult;
+    }
+
+    @SunshineSyncAdapter.LocationStatus
+    @SuppressWarnings("ResourceType")
+    static int getLocationStatus(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getInt(
+                context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
+    static int countWeatherRows(Context context) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(TEST_LOCATION_QUERY),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "."
+                        + WeatherContract.WeatherEntry._ID},
+                null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private static void deleteAllRecords(Context context) {
+        context.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        context.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+}
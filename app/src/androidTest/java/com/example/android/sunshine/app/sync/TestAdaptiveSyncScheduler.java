@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.content.PeriodicSync;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.List;
+
+import static com.example.android.sunshine.app.sync.AdaptiveSyncScheduler.DEFAULT_INTERVAL;
+import static com.example.android.sunshine.app.sync.AdaptiveSyncScheduler.INITIAL_CHURN;
+import static com.example.android.sunshine.app.sync.AdaptiveSyncScheduler.MAX_INTERVAL;
+import static com.example.android.sunshine.app.sync.AdaptiveSyncScheduler.MIN_INTERVAL;
+import static com.example.android.sunshine.app.sync.AdaptiveSyncScheduler.computeInterval;
+import static com.example.android.sunshine.app.sync.AdaptiveSyncScheduler.shouldSyncOnForeground;
+
+public class TestAdaptiveSyncScheduler extends AndroidTestCase {
+
+    private static final float BATTERY_FULL = 1f;
+    private static final float BATTERY_LOW = 0.05f;
+    private static final float BATTERY_UNKNOWN = -1f;
+    // Newer platforms apply periodic sync changes in the background
+    private static final long PERIODIC_SYNC_WAIT_MILLIS = 5000;
+
+    public void testInitialChurnKeepsDefaultInterval() {
+        int interval = computeInterval(INITIAL_CHURN, false, false, false, BATTERY_FULL);
+        assertTrue("Error: initial interval " + interval + " is not the default",
+                Math.abs(interval - DEFAULT_INTERVAL) <= 1);
+    }
+
+    public void testChurnMovesBetweenLimits() {
+        assertEquals(MIN_INTERVAL, computeInterval(1f, false, false, false, BATTERY_FULL));
+        assertEquals(MAX_INTERVAL, computeInterval(0f, false, false, false, BATTERY_FULL));
+
+        int previous = MAX_INTERVAL + 1;
+        for (float churn = 0f; churn <= 1f; churn += 0.1f) {
+            int interval = computeInterval(churn, false, false, false, BATTERY_FULL);
+            assertTrue("Error: more churn didn't shorten the interval", interval < previous);
+            previous = interval;
+        }
+    }
+
+    public void testRecentUseCapsInterval() {
+        assertEquals(DEFAULT_INTERVAL, computeInterval(0f, true, false, false, BATTERY_FULL));
+        assertEquals(MIN_INTERVAL, computeInterval(1f, true, false, false, BATTERY_FULL));
+    }
+
+    public void testConditionsStretchAndShorten() {
+        int base = computeInterval(0.5f, false, false, false, BATTERY_FULL);
+        assertTrue(computeInterval(0.5f, false, true, false, BATTERY_FULL) > base);
+        assertTrue(computeInterval(0.5f, false, false, false, BATTERY_LOW) > base);
+        assertTrue(computeInterval(0.5f, false, false, true, BATTERY_FULL) < base);
+        // A low battery doesn't matter while charging
+        assertTrue(computeInterval(0.5f, false, false, true, BATTERY_LOW) < base);
+        assertEquals(base, computeInterval(0.5f, false, false, false, BATTERY_UNKNOWN));
+    }
+
+    public void testLimitsAlwaysHold() {
+        assertEquals(MAX_INTERVAL, computeInterval(0f, false, true, false, BATTERY_LOW));
+        assertEquals(MIN_INTERVAL, computeInterval(1f, true, false, true, BATTERY_FULL));
+        assertEquals(MIN_INTERVAL, computeInterval(5f, false, false, false, BATTERY_FULL));
+        assertEquals(MAX_INTERVAL, computeInterval(-5f, false, false, false, BATTERY_FULL));
+    }
+
+    public void testForegroundSyncOnlyWhenStaleAndWorthTrying() {
+        long now = 100 * MAX_INTERVAL * 1000L;
+        long stale = now - DEFAULT_INTERVAL * 1000L - 1;
+        long fresh = now - MIN_INTERVAL * 1000L;
+        assertTrue(shouldSyncOnForeground(now, stale, stale, 0));
+        assertTrue(shouldSyncOnForeground(now, stale, 0, 0));
+        assertFalse(shouldSyncOnForeground(now, fresh, fresh, 0));
+        // A failed sync a moment ago doesn't need repeating on every visit
+        assertFalse(shouldSyncOnForeground(now, stale, fresh, 0));
+        // Nor does one the circuit breaker would turn away
+        assertFalse(shouldSyncOnForeground(now, stale, stale, now + 1));
+    }
+
+    public void testRescheduleLeavesOnePeriodicSync() throws InterruptedException {
+        Account account = SunshineSyncAdapter.getSyncAccount(mContext);
+        String authority = mContext.getString(R.string.content_authority);
+        AdaptiveSyncScheduler scheduler = new AdaptiveSyncScheduler(mContext);
+        int original = scheduler.getInterval();
+        try {
+            // What an install from before the all-locations sync is left with
+            ContentResolver.addPeriodicSync(account, authority, new Bundle(), DEFAULT_INTERVAL);
+
+            scheduler.setInterval(MIN_INTERVAL);
+            assertOnlyPeriodicSync(account, authority, MIN_INTERVAL);
+
+            scheduler.setInterval(MAX_INTERVAL);
+            assertOnlyPeriodicSync(account, authority, MAX_INTERVAL);
+        } finally {
+            scheduler.setInterval(original);
+        }
+    }
+
+    private static void assertOnlyPeriodicSync(Account account, String authority, int interval)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + PERIODIC_SYNC_WAIT_MILLIS;
+        List<PeriodicSync> periodicSyncs = ContentResolver.getPeriodicSyncs(account, authority);
+        while (!(periodicSyncs.size() == 1 && periodicSyncs.get(0).period == interval)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            periodicSyncs = ContentResolver.getPeriodicSyncs(account, authority);
+        }
+        assertEquals("Error: expected exactly one periodic sync, found " + periodicSyncs,
+                1, periodicSyncs.size());
+        PeriodicSync periodicSync = periodicSyncs.get(0);
+        assertEquals(interval, periodicSync.period);
+        assertTrue("Error: the periodic sync doesn't cover every location",
+                periodicSync.extras.getBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS));
+    }
+}
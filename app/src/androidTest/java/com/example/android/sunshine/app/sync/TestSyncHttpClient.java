@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+/*
+    Runs syncs against a MockWeatherServer to check what SyncHttpClient does on the wire:
+    connection reuse, gzip, timeouts and cancellation.
+ */
+public class TestSyncHttpClient extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 300;
+    // Longer than any of the tests should take
+    private static final long STALL_MILLIS = 10000;
+
+    private MockWeatherServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncTestUtilities.setUpSync(mContext);
+        mServer = new MockWeatherServer();
+        ForecastFetcher.setBaseUrl(mServer.getBaseUrl());
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false,
+                new SyncHttpClient(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        SyncTestUtilities.tearDownSync(mContext);
+        super.tearDown();
+    }
+
+    public void testConnectionIsReused() {
+        mServer.setDefaultResponse(
+                MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, 0));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals("Error: every sync opened a new connection",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testConnectionIsReusedAfterError() {
+        mServer.enqueue(new MockWeatherServer.Response(500, "Internal Server Error"));
+        mServer.setDefaultResponse(
+                MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, 0));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals("Error: the error response closed the connection",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testGzippedResponse() {
+        mServer.setDefaultResponse(
+                MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, 0).gzipped());
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals("gzip", mServer.getAcceptEncoding());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertEquals(DAYS, SyncTestUtilities.countWeatherRows(mContext));
+    }
+
+    public void testReadTimeout() {
+        mServer.setDefaultResponse(
+                MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, 0)
+                        .withLatency(STALL_MILLIS));
+        long start = System.currentTimeMillis();
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("Error: the sync waited " + elapsed + "ms on a stalled server",
+                elapsed < STALL_MILLIS / 2);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                SyncTestUtilities.getLocationStatus(mContext));
+    }
+
+    public void testCancel() throws InterruptedException {
+        // Read timeouts are off, so only cancelling can end this sync early
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false,
+                new SyncHttpClient(CONNECT_TIMEOUT_MILLIS, 0));
+        mServer.setDefaultResponse(
+                MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, 0)
+                        .withLatency(STALL_MILLIS));
+
+        Thread sync = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SyncTestUtilities.performSync(mSyncAdapter, true);
+            }
+        });
+        long start = System.currentTimeMillis();
+        sync.start();
+        while (mServer.getRequestCount() == 0) {
+            Thread.sleep(10);
+        }
+        mSyncAdapter.onSyncCanceled();
+        sync.join(STALL_MILLIS);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertFalse("Error: the sync didn't stop when cancelled", sync.isAlive());
+        assertTrue("Error: cancelling took " + elapsed + "ms", elapsed < STALL_MILLIS / 2);
+        assertEquals("Error: a cancelled sync was retried", 1, mServer.getRequestCount());
+        assertEquals("Error: a cancelled sync changed the status",
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN,
+                SyncTestUtilities.getLocationStatus(mContext));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+    Runs thousands of whole syncs back to back against a MockWeatherServer: fetch, parse, store
+    and status.  Throughput, p50/p99 latency and the bytes the syncing thread allocated go to
+    logcat under this class's tag; the assertions only check that every sync succeeded.
+ */
+public class TestSyncLoad extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSyncLoad.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    // Latency of every response; enough to count without drowning out the local work
+    private static final long SERVER_LATENCY_MILLIS = 2;
+
+    private MockWeatherServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncTestUtilities.setUpSync(mContext);
+        mServer = new MockWeatherServer();
+        ForecastFetcher.setBaseUrl(mServer.getBaseUrl());
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        SyncTestUtilities.tearDownSync(mContext);
+        super.tearDown();
+    }
+
+    /**
+     * The common case: the server keeps sending the forecast we already have.
+     */
+    public void testUnchangedForecastSyncs() {
+        runLoad("unchanged", 2000, 1);
+    }
+
+    /**
+     * Every sync gets a different forecast, so every sync writes.
+     */
+    public void testChangingForecastSyncs() {
+        runLoad("changing", 1000, 2);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void runLoad(String label, int syncCount, int variants) {
+        MockWeatherServer.Response[] responses = new MockWeatherServer.Response[variants];
+        for (int i = 0; i < variants; i++) {
+            responses[i] = MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, i)
+                    .withLatency(SERVER_LATENCY_MILLIS);
+        }
+
+        long[] latencies = new long[syncCount];
+        // A single location is fetched on the syncing thread, so its allocations cover the
+        // whole sync but not the server
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocSize();
+        long begin = System.nanoTime();
+        for (int i = 0; i < syncCount; i++) {
+            mServer.setDefaultResponse(responses[i % variants]);
+            long start = System.nanoTime();
+            SyncTestUtilities.performSync(mSyncAdapter, false);
+            latencies[i] = System.nanoTime() - start;
+
+            assertEquals("Error: sync " + i + " failed", SunshineSyncAdapter.LOCATION_STATUS_OK,
+                    SyncTestUtilities.getLocationStatus(mContext));
+        }
+        long elapsed = System.nanoTime() - begin;
+        long allocated = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+
+        assertEquals("Error: not every sync reached the server",
+                syncCount, mServer.getRequestCount());
+        assertEquals(DAYS, SyncTestUtilities.countWeatherRows(mContext));
+
+        Arrays.sort(latencies);
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%s: %d syncs, %.1f syncs/s, p50 %.2fms, p99 %.2fms, %d bytes allocated per sync",
+                label, syncCount, syncCount / (elapsed / 1e9),
+                percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6,
+                allocated / syncCount));
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SyncResult;
+import android.test.AndroidTestCase;
+
+/*
+    Runs syncs against a MockWeatherServer that fails, and checks how often they go back to it:
+    the retries of a single sync, and the circuit breaker across syncs.
+ */
+public class TestSyncRetry extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+    private static final int MAX_ATTEMPTS = SyncTestUtilities.TEST_RETRY_POLICY.maxAttempts;
+
+    private MockWeatherServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncTestUtilities.setUpSync(mContext);
+        mServer = new MockWeatherServer();
+        ForecastFetcher.setBaseUrl(mServer.getBaseUrl());
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        SyncTestUtilities.tearDownSync(mContext);
+        super.tearDown();
+    }
+
+    public void testRetriesServerErrors() {
+        mServer.enqueue(new MockWeatherServer.Response(500, "Internal Server Error"));
+        mServer.enqueue(new MockWeatherServer.Response(503, "Service Unavailable"));
+        mServer.setDefaultResponse(
+                MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, 0));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertEquals(DAYS, SyncTestUtilities.countWeatherRows(mContext));
+    }
+
+    public void testGivesUpAfterLastAttempt() {
+        mServer.setDefaultResponse(new MockWeatherServer.Response(500, "Internal Server Error"));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals(MAX_ATTEMPTS, mServer.getRequestCount());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                SyncTestUtilities.getLocationStatus(mContext));
+    }
+
+    public void testDoesNotRetryAnswers() {
+        mServer.setDefaultResponse(MockWeatherServer.notFound());
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals("Error: a location the server doesn't know was asked for again",
+                1, mServer.getRequestCount());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                SyncTestUtilities.getLocationStatus(mContext));
+    }
+
+    public void testCircuitOpens() {
+        openCircuit();
+        int requests = mServer.getRequestCount();
+
+        long now = System.currentTimeMillis();
+        SyncResult syncResult = SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals("Error: a sync went to the server while the circuit was open",
+                requests, mServer.getRequestCount());
+        assertEquals("Error: the open circuit was reported as a server failure",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_BACKOFF,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertTrue("Error: the sync manager wasn't asked to hold off",
+                syncResult.delayUntil > now / 1000);
+    }
+
+    public void testProbeClosesCircuit() {
+        openCircuit();
+        endOpenPeriod();
+        int requests = mServer.getRequestCount();
+
+        mServer.setDefaultResponse(
+                MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, 0));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+        assertEquals(requests + 1, mServer.getRequestCount());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                SyncTestUtilities.getLocationStatus(mContext));
+
+        // Closed again, so failures are retried as usual
+        mServer.setDefaultResponse(new MockWeatherServer.Response(500, "Internal Server Error"));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+        assertEquals(requests + 1 + MAX_ATTEMPTS, mServer.getRequestCount());
+    }
+
+    public void testFailedProbeReopensCircuit() {
+        openCircuit();
+        endOpenPeriod();
+        int requests = mServer.getRequestCount();
+
+        long now = System.currentTimeMillis();
+        SyncResult syncResult = SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals("Error: more than a single probe was sent",
+                requests + 1, mServer.getRequestCount());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertTrue("Error: the circuit didn't open again", syncResult.delayUntil > now / 1000);
+    }
+
+    /**
+     * Fails syncs until the circuit breaker opens.
+     */
+    private void openCircuit() {
+        mServer.setDefaultResponse(new MockWeatherServer.Response(500, "Internal Server Error"));
+        while (mServer.getRequestCount() < CircuitBreaker.FAILURE_THRESHOLD) {
+            SyncTestUtilities.performSync(mSyncAdapter, true);
+        }
+        assertEquals("Error: the circuit didn't open at the threshold",
+                CircuitBreaker.FAILURE_THRESHOLD, mServer.getRequestCount());
+    }
+
+    private void endOpenPeriod() {
+        mContext.getSharedPreferences(CircuitBreaker.PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putLong(CircuitBreaker.KEY_RETRY_AT, 0)
+                .commit();
+    }
+}
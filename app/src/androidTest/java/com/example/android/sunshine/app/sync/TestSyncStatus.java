@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import java.util.HashMap;
+
+/*
+    Runs whole syncs against a MockWeatherServer and checks the location status each kind of
+    response leaves behind.
+ */
+public class TestSyncStatus extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+
+    private MockWeatherServer mServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncTestUtilities.setUpSync(mContext);
+        mServer = new MockWeatherServer();
+        ForecastFetcher.setBaseUrl(mServer.getBaseUrl());
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        SyncTestUtilities.tearDownSync(mContext);
+        super.tearDown();
+    }
+
+    public void testForecastIsStored() {
+        mServer.setDefaultResponse(
+                MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, 0));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertEquals("Error: the forecast was not stored",
+                DAYS, SyncTestUtilities.countWeatherRows(mContext));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testUnknownCity() {
+        mServer.setDefaultResponse(MockWeatherServer.notFound());
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertEquals(0, SyncTestUtilities.countWeatherRows(mContext));
+    }
+
+    public void testServerError() {
+        mServer.setDefaultResponse(new MockWeatherServer.Response(500, "Internal Server Error"));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertEquals(0, SyncTestUtilities.countWeatherRows(mContext));
+    }
+
+    public void testTruncatedResponse() {
+        MockWeatherServer.Response response =
+                MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, 0);
+        mServer.setDefaultResponse(response.truncatedAt(response.body.length / 2));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertEquals("Error: part of a forecast was stored",
+                0, SyncTestUtilities.countWeatherRows(mContext));
+    }
+
+    public void testMalformedResponse() {
+        mServer.setDefaultResponse(new MockWeatherServer.Response(200,
+                "{\"cod\":\"200\",\"list\":[{\"temp\":\"warm\"}]}"));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertEquals(0, SyncTestUtilities.countWeatherRows(mContext));
+    }
+
+    public void testResponseWithoutList() {
+        mServer.setDefaultResponse(new MockWeatherServer.Response(200,
+                "{\"city\":{\"name\":\"" + SyncTestUtilities.TEST_CITY_NAME +
+                        "\",\"coord\":{\"lon\":-122.0838,\"lat\":37.386}},\"cod\":\"200\"}"));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals("Error: a forecast without days was taken as valid",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertEquals(0, SyncTestUtilities.countWeatherRows(mContext));
+    }
+
+    public void testErrorCodeAfterList() {
+        String forecast = MockWeatherServer.createForecastJson(
+                SyncTestUtilities.TEST_CITY_NAME, DAYS, 0).replace("\"cod\":\"200\",", "");
+        mServer.setDefaultResponse(new MockWeatherServer.Response(200,
+                forecast.substring(0, forecast.length() - 1) + ",\"cod\":\"404\"}"));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertEquals("Error: days read before the error code were stored",
+                0, SyncTestUtilities.countWeatherRows(mContext));
+    }
+
+    public void testSlowResponse() {
+        mServer.setDefaultResponse(
+                MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, 0)
+                        .withLatency(500)
+                        .slowly(50));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertEquals(DAYS, SyncTestUtilities.countWeatherRows(mContext));
+    }
+
+    public void testSecondSyncAsksAgain() {
+        mServer.setDefaultResponse(
+                MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, 0));
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+        SyncTestUtilities.performSync(mSyncAdapter, false);
+
+        assertEquals("Error: a response without validators was not fetched again",
+                2, mServer.getRequestCount());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                SyncTestUtilities.getLocationStatus(mContext));
+        assertEquals(DAYS, SyncTestUtilities.countWeatherRows(mContext));
+    }
+
+    public void testStagesAreRecorded() {
+        MockWeatherServer.Response response =
+                MockWeatherServer.forecast(SyncTestUtilities.TEST_CITY_NAME, DAYS, 0);
+        mServer.setDefaultResponse(response);
+        SyncTestUtilities.performSync(mSyncAdapter, true);
+
+        // The latest run is this one
+        Cursor cursor = mContext.getContentResolver().query(
+                SyncMetricsEntry.CONTENT_URI,
+                new String[]{SyncMetricsEntry.COLUMN_STAGE, SyncMetricsEntry.COLUMN_BYTES},
+                SyncMetricsEntry.COLUMN_RUN_ID + " = (SELECT max(" + SyncMetricsEntry.COLUMN_RUN_ID
+                        + ") FROM " + SyncMetricsEntry.TABLE_NAME + ")",
+                null,
+                null);
+        HashMap<String, Long> stages = new HashMap<String, Long>();
+        while (cursor.moveToNext()) {
+            stages.put(cursor.getString(0), cursor.getLong(1));
+        }
+        cursor.close();
+
+        String[] expectedStages = {SyncMetricsEntry.STAGE_CONNECT,
+                SyncMetricsEntry.STAGE_FIRST_BYTE, SyncMetricsEntry.STAGE_DOWNLOAD,
+                SyncMetricsEntry.STAGE_PARSE, SyncMetricsEntry.STAGE_TRANSACTION,
+                SyncMetricsEntry.STAGE_PRUNE, SyncMetricsEntry.STAGE_TOTAL};
+        for (String stage : expectedStages) {
+            assertTrue("Error: no " + stage + " stage recorded", stages.containsKey(stage));
+        }
+        assertEquals("Error: the download size is wrong",
+                response.body.length, (long) stages.get(SyncMetricsEntry.STAGE_DOWNLOAD));
+    }
+}
@@ -150,6 +150,7 @@ public class MainActivity extends AppCompatActivity implements ForecastFragment.
             }
             mLocation = location;
         }
+        SunshineSyncAdapter.onAppForeground(this);
     }
 
     @Override
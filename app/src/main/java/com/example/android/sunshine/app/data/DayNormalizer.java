@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.text.format.Time;
+
+/**
+ * Same result as {@link WeatherContract#normalizeDate(long)}, for callers normalizing many dates
+ * in a row.  It reuses one Time and remembers the bounds of the last day it saw, so dates
+ * falling on the same day as the previous one cost a comparison.  Not thread safe.
+ */
+class DayNormalizer {
+    private final Time mTime = new Time();
+    private long mDayStart = Long.MAX_VALUE;
+    private long mNextDayStart = Long.MIN_VALUE;
+
+    long normalize(long date) {
+        if (date >= mDayStart && date < mNextDayStart) {
+            return mDayStart;
+        }
+        mTime.set(date);
+        int julianDay = Time.getJulianDay(date, mTime.gmtoff);
+        mNextDayStart = mTime.setJulianDay(julianDay + 1);
+        mDayStart = mTime.setJulianDay(julianDay);
+        return mDayStart;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable copy of the stored forecast for one location: what the widgets, Muzei, the
+ * watch face and the daily notification show.  Snapshots are kept for the whole process, so
+ * after a sync those consumers read the forecast from memory instead of each querying the
+ * provider.
+ */
+public final class ForecastSnapshot {
+
+    /**
+     * One day of the forecast.
+     */
+    public static final class Day {
+        public final long id;
+        public final long date;
+        public final int weatherId;
+        public final String description;
+        public final double maxTemp;
+        public final double minTemp;
+
+        Day(long id, long date, int weatherId, String description, double maxTemp,
+            double minTemp) {
+            this.id = id;
+            this.date = date;
+            this.weatherId = weatherId;
+            this.description = description;
+            this.maxTemp = maxTemp;
+            this.minTemp = minTemp;
+        }
+    }
+
+    // Served entirely from the forecast list's covering index
+    private static final String[] SNAPSHOT_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_MIN_TEMP = 5;
+
+    private static final ConcurrentHashMap<String, ForecastSnapshot> sSnapshots =
+            new ConcurrentHashMap<>();
+    // Bumped on every write to the provider, so a snapshot read from the database while a
+    // write was committing is never kept
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+
+    public final String locationSetting;
+    // In date order
+    private final Day[] mDays;
+
+    private ForecastSnapshot(String locationSetting, Day[] days) {
+        this.locationSetting = locationSetting;
+        mDays = days;
+    }
+
+    public int getDayCount() {
+        return mDays.length;
+    }
+
+    public Day getDay(int position) {
+        return mDays[position];
+    }
+
+    /**
+     * Returns the position of the first day on or after the given date, or -1 if the forecast
+     * doesn't go that far.
+     */
+    public int getFirstPositionFrom(long date) {
+        long normalizedDate = WeatherContract.normalizeDate(date);
+        for (int i = 0; i < mDays.length; i++) {
+            if (mDays[i].date >= normalizedDate) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the first day on or after the given date, or null if there is none.
+     */
+    public Day getFirstDayFrom(long date) {
+        int position = getFirstPositionFrom(date);
+        return position == -1 ? null : mDays[position];
+    }
+
+    /**
+     * Returns the forecast for the given date, or null if there is none.
+     */
+    public Day getDayOn(long date) {
+        Day day = getFirstDayFrom(date);
+        return day != null && day.date == WeatherContract.normalizeDate(date) ? day : null;
+    }
+
+    /**
+     * Returns the forecast for a location, reading it from the database only if no snapshot is
+     * held for it.  Never null; a location with no forecast has no days.
+     */
+    public static ForecastSnapshot get(Context context, String locationSetting) {
+        ForecastSnapshot snapshot = sSnapshots.get(locationSetting);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        return publish(context, locationSetting, sGeneration.get());
+    }
+
+    /**
+     * Reads the forecast for a location from the database and makes it the one everybody is
+     * served.  The sync calls this once its writes have committed, so the consumers it wakes
+     * up find the new forecast in memory.
+     */
+    public static ForecastSnapshot publish(Context context, String locationSetting) {
+        return publish(context, locationSetting, sGeneration.get());
+    }
+
+    /**
+     * Reads the forecast for a location and keeps it, unless the provider has written since the
+     * given generation: a write committing during the read would otherwise be overwritten by
+     * what was there before it.
+     *
+     * @param generation The generation taken before the read began
+     */
+    static ForecastSnapshot publish(Context context, String locationSetting, int generation) {
+        ForecastSnapshot snapshot = load(context.getContentResolver(), locationSetting);
+        if (sGeneration.get() == generation) {
+            sSnapshots.put(locationSetting, snapshot);
+            // Lost a race with an invalidate that came after the check
+            if (sGeneration.get() != generation) {
+                sSnapshots.remove(locationSetting, snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the current generation, for a publish that should count as started now.
+     */
+    static int getGeneration() {
+        return sGeneration.get();
+    }
+
+    /**
+     * Drops every snapshot.  Called by the provider after each write it commits.
+     */
+    static void invalidate() {
+        sGeneration.incrementAndGet();
+        sSnapshots.clear();
+    }
+
+    private static ForecastSnapshot load(ContentResolver resolver, String locationSetting) {
+        Cursor cursor = resolver.query(WeatherEntry.buildWeatherLocation(locationSetting),
+                SNAPSHOT_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return new ForecastSnapshot(locationSetting, new Day[0]);
+        }
+        try {
+            Day[] days = new Day[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                days[i] = new Day(cursor.getLong(INDEX_ID),
+                        cursor.getLong(INDEX_DATE),
+                        cursor.getInt(INDEX_WEATHER_ID),
+                        cursor.getString(INDEX_SHORT_DESC),
+                        cursor.getDouble(INDEX_MAX_TEMP),
+                        cursor.getDouble(INDEX_MIN_TEMP));
+            }
+            return new ForecastSnapshot(locationSetting, days);
+        } finally {
+            cursor.close();
+        }
+    }
+}
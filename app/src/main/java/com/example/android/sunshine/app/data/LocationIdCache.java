@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The location table's _id for each location setting, kept for the whole process.  The sync
+ * uses it to stamp weather rows without looking the location up, and the provider to filter
+ * weather on its location_id column instead of joining the location table.
+ *
+ * Only locations that exist are cached, so a location added behind the provider's back is
+ * still found.  The provider drops everything after each location write it commits.
+ */
+public final class LocationIdCache {
+
+    private static final String[] ID_COLUMNS = {LocationEntry._ID};
+    private static final String SETTING_SELECTION =
+            LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    private static final ConcurrentHashMap<String, Long> sIds = new ConcurrentHashMap<>();
+    // Bumped on every location write, so an id read while a write was committing is never kept
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+
+    private LocationIdCache() {
+    }
+
+    /**
+     * Returns the _id of the location with the given setting, asking the provider only if it
+     * isn't cached.
+     *
+     * @return the row ID, or -1 if there is no such location
+     */
+    public static long get(Context context, String locationSetting) {
+        Long id = sIds.get(locationSetting);
+        if (id != null) {
+            return id;
+        }
+        int generation = sGeneration.get();
+        Cursor cursor = context.getContentResolver().query(LocationEntry.CONTENT_URI,
+                ID_COLUMNS, SETTING_SELECTION, new String[]{locationSetting}, null);
+        return remember(generation, locationSetting, cursor);
+    }
+
+    /**
+     * Returns the _id of the location with the given setting, reading the database directly if
+     * it isn't cached.  For the provider.
+     *
+     * @return the row ID, or -1 if there is no such location
+     */
+    static long get(SQLiteDatabase db, String locationSetting) {
+        Long id = sIds.get(locationSetting);
+        if (id != null) {
+            return id;
+        }
+        int generation = sGeneration.get();
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, ID_COLUMNS, SETTING_SELECTION,
+                new String[]{locationSetting}, null, null, null);
+        return remember(generation, locationSetting, cursor);
+    }
+
+    /**
+     * Records the id of a location just inserted.  Must come after the insert has committed.
+     */
+    static void put(String locationSetting, long id) {
+        sIds.put(locationSetting, id);
+    }
+
+    /**
+     * Drops every id.  Called by the provider after each location write it commits, and when
+     * the database is created.
+     */
+    static void invalidate() {
+        sGeneration.incrementAndGet();
+        sIds.clear();
+    }
+
+    private static long remember(int generation, String locationSetting, Cursor cursor) {
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return -1;
+            }
+            long id = cursor.getLong(0);
+            if (sGeneration.get() == generation) {
+                sIds.put(locationSetting, id);
+            }
+            return id;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Map;
+
+/**
+ * Writes weather rows for the provider, skipping rows identical to the stored row for the same
+ * date and location and updating changed rows in place so they keep their ids.
+ *
+ * Complete rows (every weather column present) take a fast path: the lookups, insert and update
+ * are compiled once per writer and bound with primitives, so writing a row allocates no
+ * cursors and compiles no SQL.  Anything else goes through ContentValues as before.
+ *
+ * A writer belongs to one database transaction on one thread; close it when done.
+ */
+class WeatherBulkWriter {
+    // Outcomes of write()
+    static final int UNCHANGED = 0;
+    static final int INSERTED = 1;
+    static final int UPDATED = 2;
+
+    // Statement parameters shared by the lookup and the insert, in this order
+    private static final String[] ROW_COLUMNS = WeatherSql.ROW_COLUMNS;
+
+    //date = ? AND location_id = ?
+    private static final String sDateAndLocationIdSelection =
+            WeatherEntry.COLUMN_DATE + " = ? AND " +
+                    WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    private final SQLiteDatabase mDb;
+    private final DayNormalizer mDayNormalizer = new DayNormalizer();
+
+    // Compiled the first time they are needed
+    private SQLiteStatement mFindIdenticalRow;
+    private SQLiteStatement mFindRow;
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mUpdate;
+
+    private long mLastRowId = -1;
+
+    WeatherBulkWriter(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    /**
+     * Id of the row touched by the last call to write(), or -1 if it could not be written.
+     */
+    long getLastRowId() {
+        return mLastRowId;
+    }
+
+    /**
+     * Writes one weather row unless an identical row is already stored.  The date is normalized
+     * on the way in.
+     *
+     * @return UNCHANGED, INSERTED or UPDATED
+     */
+    int write(ContentValues values) {
+        if (isCompleteRow(values)) {
+            return writeCompleteRow(values);
+        }
+        return writeValues(values);
+    }
+
+    void close() {
+        closeStatement(mFindIdenticalRow);
+        closeStatement(mFindRow);
+        closeStatement(mInsert);
+        closeStatement(mUpdate);
+        mFindIdenticalRow = mFindRow = mInsert = mUpdate = null;
+    }
+
+    private static void closeStatement(SQLiteStatement statement) {
+        if (statement != null) {
+            statement.close();
+        }
+    }
+
+    private static boolean isCompleteRow(ContentValues values) {
+        if (values.size() != ROW_COLUMNS.length) {
+            return false;
+        }
+        for (String column : ROW_COLUMNS) {
+            if (values.get(column) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int writeCompleteRow(ContentValues values) {
+        long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        long date = mDayNormalizer.normalize(values.getAsLong(WeatherEntry.COLUMN_DATE));
+        long weatherId = values.getAsLong(WeatherEntry.COLUMN_WEATHER_ID);
+        String shortDesc = values.getAsString(WeatherEntry.COLUMN_SHORT_DESC);
+        double minTemp = values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+        double maxTemp = values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+        double humidity = values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+        double pressure = values.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+        double windSpeed = values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+        double degrees = values.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+
+        // Most syncs bring back exactly what we have, so look for that first
+        if (mFindIdenticalRow == null) {
+            mFindIdenticalRow = mDb.compileStatement(WeatherSql.FIND_IDENTICAL_ROW);
+        }
+        bindRow(mFindIdenticalRow, locationId, date, weatherId, shortDesc,
+                minTemp, maxTemp, humidity, pressure, windSpeed, degrees);
+        long id = mFindIdenticalRow.simpleQueryForLong();
+        if (id != -1) {
+            mLastRowId = id;
+            return UNCHANGED;
+        }
+
+        if (mFindRow == null) {
+            mFindRow = mDb.compileStatement(WeatherSql.FIND_ROW);
+        }
+        mFindRow.bindLong(1, locationId);
+        mFindRow.bindLong(2, date);
+        id = mFindRow.simpleQueryForLong();
+
+        if (id == -1) {
+            if (mInsert == null) {
+                mInsert = mDb.compileStatement(WeatherSql.INSERT);
+            }
+            bindRow(mInsert, locationId, date, weatherId, shortDesc,
+                    minTemp, maxTemp, humidity, pressure, windSpeed, degrees);
+            mLastRowId = mInsert.executeInsert();
+            return INSERTED;
+        }
+
+        if (mUpdate == null) {
+            mUpdate = mDb.compileStatement(WeatherSql.UPDATE);
+        }
+        mUpdate.bindLong(1, weatherId);
+        mUpdate.bindString(2, shortDesc);
+        mUpdate.bindDouble(3, minTemp);
+        mUpdate.bindDouble(4, maxTemp);
+        mUpdate.bindDouble(5, humidity);
+        mUpdate.bindDouble(6, pressure);
+        mUpdate.bindDouble(7, windSpeed);
+        mUpdate.bindDouble(8, degrees);
+        mUpdate.bindLong(9, id);
+        mUpdate.execute();
+        mLastRowId = id;
+        return UPDATED;
+    }
+
+    // Binds in ROW_COLUMNS order
+    private static void bindRow(SQLiteStatement statement, long locationId, long date,
+                                long weatherId, String shortDesc, double minTemp, double maxTemp,
+                                double humidity, double pressure, double windSpeed,
+                                double degrees) {
+        statement.bindLong(1, locationId);
+        statement.bindLong(2, date);
+        statement.bindLong(3, weatherId);
+        statement.bindString(4, shortDesc);
+        statement.bindDouble(5, minTemp);
+        statement.bindDouble(6, maxTemp);
+        statement.bindDouble(7, humidity);
+        statement.bindDouble(8, pressure);
+        statement.bindDouble(9, windSpeed);
+        statement.bindDouble(10, degrees);
+    }
+
+    /**
+     * The general path, for rows that don't carry every column.
+     */
+    private int writeValues(ContentValues values) {
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (date != null) {
+            date = mDayNormalizer.normalize(date);
+            values.put(WeatherEntry.COLUMN_DATE, date);
+        }
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        if (date == null || locationId == null) {
+            // Nothing to match on; let the table constraints sort it out
+            mLastRowId = mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+            return INSERTED;
+        }
+
+        Cursor existing = mDb.query(WeatherEntry.TABLE_NAME,
+                null,
+                sDateAndLocationIdSelection,
+                new String[]{Long.toString(date), Long.toString(locationId)},
+                null,
+                null,
+                null);
+        long id;
+        try {
+            if (!existing.moveToFirst()) {
+                mLastRowId = mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+                return INSERTED;
+            }
+            id = existing.getLong(existing.getColumnIndex(WeatherEntry._ID));
+            mLastRowId = id;
+            if (matchesCurrentRow(existing, values)) {
+                return UNCHANGED;
+            }
+        } finally {
+            existing.close();
+        }
+        mDb.update(WeatherEntry.TABLE_NAME, values,
+                WeatherEntry._ID + " = ?",
+                new String[]{Long.toString(id)});
+        return UPDATED;
+    }
+
+    /**
+     * Returns whether every value holds the same as the cursor's current row.  Numbers are
+     * compared by value, since the columns are REAL but the parser hands some over as integers.
+     */
+    private static boolean matchesCurrentRow(Cursor cursor, ContentValues values) {
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            int index = cursor.getColumnIndex(entry.getKey());
+            if (index == -1) {
+                return false;
+            }
+            Object value = entry.getValue();
+            if (value == null) {
+                if (!cursor.isNull(index)) {
+                    return false;
+                }
+            } else if (value instanceof Number) {
+                if (cursor.isNull(index)
+                        || cursor.getDouble(index) != ((Number) value).doubleValue()) {
+                    return false;
+                }
+            } else if (!value.toString().equals(cursor.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
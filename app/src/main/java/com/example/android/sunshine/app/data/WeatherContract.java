@@ -22,7 +22,8 @@ import android.provider.BaseColumns;
 import android.text.format.Time;
 
 /**
- * Defines table and column names for the weather database.
+ * Defines table and column names for the weather database.  The location and weather table names
+ * are WeatherTables', which WeatherSql builds the schema from.
  */
 public class WeatherContract {
 
@@ -43,6 +44,7 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -66,20 +68,21 @@ public class WeatherContract {
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATION;
 
         // Table name
-        public static final String TABLE_NAME = "location";
+        public static final String TABLE_NAME = WeatherTables.Location.TABLE_NAME;
 
         // The location setting string is what will be sent to openweathermap
         // as the location query.
-        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        public static final String COLUMN_LOCATION_SETTING =
+                WeatherTables.Location.COLUMN_LOCATION_SETTING;
 
         // Human readable location string, provided by the API.  Because for styling,
         // "Mountain View" is more recognizable than 94043.
-        public static final String COLUMN_CITY_NAME = "city_name";
+        public static final String COLUMN_CITY_NAME = WeatherTables.Location.COLUMN_CITY_NAME;
 
         // In order to uniquely pinpoint the location on the map when we launch the
         // map intent, we store the latitude and longitude as returned by openweathermap.
-        public static final String COLUMN_COORD_LAT = "coord_lat";
-        public static final String COLUMN_COORD_LONG = "coord_long";
+        public static final String COLUMN_COORD_LAT = WeatherTables.Location.COLUMN_COORD_LAT;
+        public static final String COLUMN_COORD_LONG = WeatherTables.Location.COLUMN_COORD_LONG;
 
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
@@ -97,34 +100,34 @@ public class WeatherContract {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEATHER;
 
-        public static final String TABLE_NAME = "weather";
+        public static final String TABLE_NAME = WeatherTables.Weather.TABLE_NAME;
 
         // Column with the foreign key into the location table.
-        public static final String COLUMN_LOC_KEY = "location_id";
+        public static final String COLUMN_LOC_KEY = WeatherTables.Weather.COLUMN_LOC_KEY;
         // Date, stored as long in milliseconds since the epoch
-        public static final String COLUMN_DATE = "date";
+        public static final String COLUMN_DATE = WeatherTables.Weather.COLUMN_DATE;
         // Weather id as returned by API, to identify the icon to be used
-        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_WEATHER_ID = WeatherTables.Weather.COLUMN_WEATHER_ID;
 
         // Short description and long description of the weather, as provided by API.
         // e.g "clear" vs "sky is clear".
-        public static final String COLUMN_SHORT_DESC = "short_desc";
+        public static final String COLUMN_SHORT_DESC = WeatherTables.Weather.COLUMN_SHORT_DESC;
 
         // Min and max temperatures for the day (stored as floats)
-        public static final String COLUMN_MIN_TEMP = "min";
-        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_MIN_TEMP = WeatherTables.Weather.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherTables.Weather.COLUMN_MAX_TEMP;
 
         // Humidity is stored as a float representing percentage
-        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_HUMIDITY = WeatherTables.Weather.COLUMN_HUMIDITY;
 
         // Humidity is stored as a float representing percentage
-        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_PRESSURE = WeatherTables.Weather.COLUMN_PRESSURE;
 
         // Windspeed is stored as a float representing windspeed  mph
-        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_WIND_SPEED = WeatherTables.Weather.COLUMN_WIND_SPEED;
 
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
-        public static final String COLUMN_DEGREES = "degrees";
+        public static final String COLUMN_DEGREES = WeatherTables.Weather.COLUMN_DEGREES;
 
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
@@ -165,4 +168,49 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the sync metrics table.  Each sync run
+       appends one row per stage it went through; the rows can be read but never changed. */
+    public static final class SyncMetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+
+        public static final String TABLE_NAME = "sync_metrics";
+
+        // Wall clock time the sync run started, in milliseconds since the epoch.  Every row of
+        // a run shares it.
+        public static final String COLUMN_RUN_ID = "run_id";
+        // The location the stage worked on, or null for the stages covering the whole run
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // One of the STAGE_ values
+        public static final String COLUMN_STAGE = "stage";
+        // How long the stage took, in microseconds
+        public static final String COLUMN_DURATION = "duration_us";
+        // Bytes the stage moved; only downloads have any
+        public static final String COLUMN_BYTES = "bytes";
+
+        // Opening the connection, including the DNS lookup
+        public static final String STAGE_CONNECT = "connect";
+        // From sending the request to having the response headers
+        public static final String STAGE_FIRST_BYTE = "first_byte";
+        // Time spent waiting on the response body
+        public static final String STAGE_DOWNLOAD = "download";
+        // Parsing the response, not counting the time waiting for it
+        public static final String STAGE_PARSE = "parse";
+        // Writing every fetched forecast in one transaction
+        public static final String STAGE_TRANSACTION = "transaction";
+        // Deleting the days that have gone by
+        public static final String STAGE_PRUNE = "prune";
+        // The whole run, start to finish
+        public static final String STAGE_TOTAL = "total";
+        // Followed by the consumer name: updating one thing that shows the forecast
+        public static final String STAGE_FAN_OUT_PREFIX = "fan_out_";
+
+        // Only the rows of this many of the latest runs are kept
+        public static final int MAX_RUNS = 50;
+    }
 }
@@ -15,84 +15,201 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * The database uses write-ahead logging where the platform has it, so readers don't wait for
+ * the sync's write transaction.  The only setting is whether WAL is on, plus the checkpoint
+ * policy below.  The size of the reader connection pool is not ours to choose: the framework
+ * sizes it from the device configuration and offers no public way to change it.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
+
+    // If you change the database schema, you must increment the database version, change
+    // onCreate to build the new schema, and add a Migration to MIGRATIONS that takes the
+    // previous version there.
+    static final int DATABASE_VERSION = 4;
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // Databases older than this have no migration path and are rebuilt from scratch.
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    // Upgrades run while the app starts up; going over this gets logged so a slow migration
+    // gets noticed before it ships.
+    static final long MIGRATION_BUDGET_MS = 500;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Covers the forecast list, see WeatherSql
+    static final String INDEX_WEATHER_LOCATION_DATE = WeatherSql.INDEX_WEATHER_LOCATION_DATE;
+
+    // Finds the oldest runs when the metrics table is trimmed
+    static final String INDEX_SYNC_METRICS_RUN = "sync_metrics_run";
+
+    // Checkpoint policy for write-ahead logging.  The sync writes in one transaction every few
+    // hours, so let the log grow to hold a whole sync before copying it back, and truncate it
+    // afterwards rather than keep a large file around between syncs.
+    static final int WAL_AUTOCHECKPOINT_PAGES = 256;
+    static final long JOURNAL_SIZE_LIMIT_BYTES = 512 * 1024;
+
+    private final boolean mWriteAheadLogging;
+
     public WeatherDbHelper(Context context) {
+        this(context, true);
+    }
+
+    /**
+     * @param writeAheadLogging Whether to use write-ahead logging, which lets the UI, widgets,
+     *                          Muzei and Wear read while the sync adapter is writing.  Only
+     *                          turned off to measure the difference.
+     */
+    WeatherDbHelper(Context context, boolean writeAheadLogging) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Applied before the database is opened, so it is set up in WAL mode from the start
+            setWriteAheadLogging(writeAheadLogging);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setWriteAheadLogging(boolean enabled) {
+        setWriteAheadLoggingEnabled(enabled);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!mWriteAheadLogging || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // Gingerbread only has the rollback journal
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLogging(db);
+        }
+        // These only apply to the connection that writes, which is the one being opened here
+        runPragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+        runPragma(db, "PRAGMA journal_size_limit = " + JOURNAL_SIZE_LIMIT_BYTES);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        if (!db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    // PRAGMAs that set a value also return it, which execSQL refuses on some releases
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
-        final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
-                LocationEntry._ID + " INTEGER PRIMARY KEY," +
-                LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
-                LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
-                " );";
-
-        final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
-                // Unique keys will be auto-generated in either case.  But for weather
-                // forecasting, it's reasonable to assume the user will want information
-                // for a certain date and all dates *following*, so the forecast data
-                // should be sorted accordingly.
-                WeatherEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-
-                // the ID of the location entry associated with this weather data
-                WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
-                WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
-
-                WeatherEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
-
-                WeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
-                WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
-
-                // Set up the location column as a foreign key to location table.
-                " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
-                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
-
-                // To assure the application have just one weather entry per day
-                // per location, it's created a UNIQUE constraint with REPLACE strategy
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
-                WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
-
-        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        // Ids cached from a database that was deleted mean nothing in this one
+        LocationIdCache.invalidate();
+
+        // The location and weather tables are shared with the benchmarks, see WeatherSql
+        sqLiteDatabase.execSQL(WeatherSql.CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(WeatherSql.CREATE_WEATHER_TABLE);
+        createWeatherIndexes(sqLiteDatabase);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_RUN_INDEX);
+    }
+
+    // One row per stage of a sync run, in long format so new stages need no schema change
+    private static final String SQL_CREATE_SYNC_METRICS_TABLE =
+            "CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                    SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    SyncMetricsEntry.COLUMN_RUN_ID + " INTEGER NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_LOCATION_SETTING + " TEXT, " +
+                    SyncMetricsEntry.COLUMN_STAGE + " TEXT NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_DURATION + " INTEGER NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_BYTES + " INTEGER NOT NULL DEFAULT 0);";
+
+    private static final String SQL_CREATE_SYNC_METRICS_RUN_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_SYNC_METRICS_RUN +
+                    " ON " + SyncMetricsEntry.TABLE_NAME + " (" +
+                    SyncMetricsEntry.COLUMN_RUN_ID + ");";
+
+    private static void createWeatherIndexes(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL(WeatherSql.CREATE_WEATHER_LOCATION_DATE_INDEX);
     }
 
+    /**
+     * One step of the schema history: the statements that take a database from the version
+     * before toVersion to toVersion.  Anything ALTER TABLE can't do is done by copying: create
+     * the new table, INSERT ... SELECT from the old one, drop it and rename the new one.
+     */
+    static class Migration {
+        final int toVersion;
+        final String[] statements;
+
+        Migration(int toVersion, String... statements) {
+            this.toVersion = toVersion;
+            this.statements = statements;
+        }
+    }
+
+    // In version order, one per version after OLDEST_MIGRATABLE_VERSION
+    static final Migration[] MIGRATIONS = {
+            // 3: covering index for the forecast list
+            new Migration(3, WeatherSql.CREATE_WEATHER_LOCATION_DATE_INDEX),
+            // 4: per-stage sync timings
+            new Migration(4, SQL_CREATE_SYNC_METRICS_TABLE, SQL_CREATE_SYNC_METRICS_RUN_INDEX),
+    };
+
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        // Every step runs in the transaction SQLiteOpenHelper wraps this in, so a failed
+        // upgrade leaves the old database as it was.
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            // The database is only a cache for online data, so discard it and start over
+            Log.i(LOG_TAG, "Rebuilding database version " + oldVersion);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncMetricsEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        long upgradeStart = SystemClock.elapsedRealtime();
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion <= oldVersion || migration.toVersion > newVersion) {
+                continue;
+            }
+            long stepStart = SystemClock.elapsedRealtime();
+            for (String statement : migration.statements) {
+                sqLiteDatabase.execSQL(statement);
+            }
+            Log.i(LOG_TAG, "Migrated database to version " + migration.toVersion + " in " +
+                    (SystemClock.elapsedRealtime() - stepStart) + "ms");
+        }
+        long upgradeMillis = SystemClock.elapsedRealtime() - upgradeStart;
+        if (upgradeMillis > MIGRATION_BUDGET_MS) {
+            Log.w(LOG_TAG, "Database upgrade from version " + oldVersion + " to " + newVersion +
+                    " took " + upgradeMillis + "ms, over the " + MIGRATION_BUDGET_MS +
+                    "ms budget");
+        }
     }
 }
@@ -17,95 +17,200 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // Set while applyBatch runs on the current thread
+    private final ThreadLocal<BatchState> mBatchState = new ThreadLocal<>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int SYNC_METRICS = 400;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sWeatherWithLocationQueryBuilder;
+    private static final SQLiteQueryBuilder sWeatherQueryBuilder;
+    private static final SQLiteQueryBuilder sLocationQueryBuilder;
+    private static final SQLiteQueryBuilder sSyncMetricsQueryBuilder;
 
     static{
-        sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherWithLocationQueryBuilder = new SQLiteQueryBuilder();
         
         //This is an inner join which looks like
         //weather INNER JOIN location ON weather.location_id = location._id
-        sWeatherByLocationSettingQueryBuilder.setTables(
+        sWeatherWithLocationQueryBuilder.setTables(
                 WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
                         WeatherContract.LocationEntry.TABLE_NAME +
                         " ON " + WeatherContract.WeatherEntry.TABLE_NAME +
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        sWeatherQueryBuilder = new SQLiteQueryBuilder();
+        sWeatherQueryBuilder.setTables(WeatherContract.WeatherEntry.TABLE_NAME);
+        sLocationQueryBuilder = new SQLiteQueryBuilder();
+        sLocationQueryBuilder.setTables(WeatherContract.LocationEntry.TABLE_NAME);
+        sSyncMetricsQueryBuilder = new SQLiteQueryBuilder();
+        sSyncMetricsQueryBuilder.setTables(WeatherContract.SyncMetricsEntry.TABLE_NAME);
     }
 
-    //location.location_setting = ?
-    private static final String sLocationSettingSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
-
-    //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
-            WeatherContract.LocationEntry.TABLE_NAME+
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
-                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
-
-    //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
-            WeatherContract.LocationEntry.TABLE_NAME +
-                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+    // Deletes the rows of every run older than the newest MAX_RUNS.  With fewer runs than that
+    // the subquery is null and nothing matches.
+    static final String SQL_TRIM_SYNC_METRICS =
+            "DELETE FROM " + WeatherContract.SyncMetricsEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.SyncMetricsEntry.COLUMN_RUN_ID + " < (" +
+                    "SELECT " + WeatherContract.SyncMetricsEntry.COLUMN_RUN_ID +
+                    " FROM " + WeatherContract.SyncMetricsEntry.TABLE_NAME +
+                    " GROUP BY " + WeatherContract.SyncMetricsEntry.COLUMN_RUN_ID +
+                    " ORDER BY " + WeatherContract.SyncMetricsEntry.COLUMN_RUN_ID + " DESC" +
+                    " LIMIT 1 OFFSET " + (WeatherContract.SyncMetricsEntry.MAX_RUNS - 1) + ")";
+
+    // Weather URIs name their location by its setting, but the weather table only has the
+    // location's id.  The id comes from LocationIdCache, so the filter is an index lookup on
+    // the weather table alone, and the location table is only joined in for its columns.
+
+    //weather.location_id = ?
+    private static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    private static final String sLocationIdWithStartDateSelection =
+            WeatherSql.LOCATION_ID_WITH_START_DATE_SELECTION;
+
+    //weather.location_id = ? AND date = ?
+    private static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+    // Columns only the location table has
+    private static final Set<String> sLocationColumns = new HashSet<>(Arrays.asList(
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG));
 
-        String[] selectionArgs;
-        String selection;
+    /**
+     * A query against the database, as worked out from a content URI.  Kept apart from running
+     * it so the query plan of every URI can be checked.
+     */
+    static class Query {
+        final SQLiteQueryBuilder builder;
+        final String[] projection;
+        final String selection;
+        final String[] selectionArgs;
+        final String sortOrder;
+
+        Query(SQLiteQueryBuilder builder, String[] projection, String selection,
+              String[] selectionArgs, String sortOrder) {
+            this.builder = builder;
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+        }
 
-        if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
-        } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+        Cursor run(SQLiteDatabase db) {
+            return builder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        @TargetApi(11)
+        String toSql() {
+            return builder.buildQuery(projection, selection, null, null, sortOrder, null);
+        }
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
-            Uri uri, String[] projection, String sortOrder) {
-        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
-        long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
-
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
-                null,
-                null,
-                sortOrder
-        );
+    /**
+     * @param db Where to look up location ids that aren't cached
+     */
+    static Query buildQuery(SQLiteDatabase db, Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
+        switch (sUriMatcher.match(uri)) {
+            // "weather/*/*"
+            case WEATHER_WITH_LOCATION_AND_DATE: {
+                String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+                // An unknown location has id -1, which matches nothing, as it should
+                long locationId = LocationIdCache.get(db, locationSetting);
+                return new Query(getWeatherQueryBuilder(projection),
+                        projection,
+                        sLocationIdAndDaySelection,
+                        new String[]{Long.toString(locationId), Long.toString(date)},
+                        sortOrder);
+            }
+            // "weather/*"
+            case WEATHER_WITH_LOCATION: {
+                String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+                long locationId = LocationIdCache.get(db, locationSetting);
+                if (startDate == 0) {
+                    return new Query(getWeatherQueryBuilder(projection),
+                            projection,
+                            sLocationIdSelection,
+                            new String[]{Long.toString(locationId)},
+                            sortOrder);
+                }
+                return new Query(getWeatherQueryBuilder(projection),
+                        projection,
+                        sLocationIdWithStartDateSelection,
+                        new String[]{Long.toString(locationId), Long.toString(startDate)},
+                        sortOrder);
+            }
+            // "weather"
+            case WEATHER:
+                return new Query(sWeatherQueryBuilder,
+                        projection, selection, selectionArgs, sortOrder);
+            // "location"
+            case LOCATION:
+                return new Query(sLocationQueryBuilder,
+                        projection, selection, selectionArgs, sortOrder);
+            // "sync_metrics"
+            case SYNC_METRICS:
+                return new Query(sSyncMetricsQueryBuilder,
+                        projection, selection, selectionArgs, sortOrder);
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
+    /**
+     * Returns the weather table on its own, or joined to the location table if the projection
+     * asks for any location columns.  A null projection asks for all of them.
+     */
+    private static SQLiteQueryBuilder getWeatherQueryBuilder(String[] projection) {
+        if (projection == null) {
+            return sWeatherWithLocationQueryBuilder;
+        }
+        for (String column : projection) {
+            int dot = column.indexOf('.');
+            boolean isLocationColumn = dot != -1
+                    ? column.substring(0, dot).equals(WeatherContract.LocationEntry.TABLE_NAME)
+                    : sLocationColumns.contains(column);
+            if (isLocationColumn) {
+                return sWeatherWithLocationQueryBuilder;
+            }
+        }
+        return sWeatherQueryBuilder;
     }
 
     /*
@@ -130,6 +235,7 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, SYNC_METRICS);
         return matcher;
     }
 
@@ -164,6 +270,8 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_METRICS:
+                return WeatherContract.SyncMetricsEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,51 +280,10 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Here's the switch statement that, given a URI, will determine what kind of request it is,
-        // and query the database accordingly.
-        Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
-            // "weather/*/*"
-            case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
-            // "weather/*"
-            case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
-                break;
-            }
-            // "weather"
-            case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            }
-            // "location"
-            case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.LocationEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            }
-
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
-        }
+        // Work out what kind of request this is, and query the database accordingly.
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Cursor retCursor = buildQuery(db, uri, projection, selection, selectionArgs, sortOrder)
+                .run(db);
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
         return retCursor;
     }
@@ -232,26 +299,57 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
+                // Inside applyBatch the writer, and its compiled statements, last for the batch
+                BatchState batch = mBatchState.get();
+                WeatherBulkWriter writer = batch != null
+                        ? batch.getWeatherWriter(db) : new WeatherBulkWriter(db);
+                int outcome;
+                long _id;
+                try {
+                    outcome = writer.write(values);
+                    _id = writer.getLastRowId();
+                } finally {
+                    if (batch == null) {
+                        writer.close();
+                    }
+                }
+                if ( _id <= 0 )
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                if ( outcome == WeatherBulkWriter.UNCHANGED ) {
+                    // Same forecast as we already have: nothing to tell anyone about.  Callers
+                    // that need to know how many rows changed use bulkInsert.
+                    return returnUri;
+                }
                 break;
             }
             case LOCATION: {
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
+                if ( _id <= 0 )
                     throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                notifyChange(uri);
+                String locationSetting =
+                        values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                if (mBatchState.get() == null && locationSetting != null) {
+                    // Committed by now, so the sync that added it can stamp its weather rows
+                    // without looking it up
+                    LocationIdCache.put(locationSetting, _id);
+                }
+                return WeatherContract.LocationEntry.buildLocationUri(_id);
+            }
+            case SYNC_METRICS: {
+                long _id = db.insert(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, values);
+                if ( _id <= 0 )
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                db.execSQL(SQL_TRIM_SYNC_METRICS);
+                // Metrics don't touch the forecast, so cached forecasts stay valid
+                getContext().getContentResolver().notifyChange(uri, null);
+                return ContentUris.withAppendedId(uri, _id);
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -271,12 +369,14 @@ public class WeatherProvider extends ContentProvider {
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case SYNC_METRICS:
+                throw new UnsupportedOperationException("Sync metrics are append-only: " + uri);
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -306,15 +406,24 @@ public class WeatherProvider extends ContentProvider {
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
+            case SYNC_METRICS:
+                throw new UnsupportedOperationException("Sync metrics are append-only: " + uri);
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Inserts weather rows, skipping the ones that match what is already stored for their date
+     * and location.  Changed rows are updated in place so they keep their ids, and observers are
+     * only notified if at least one row was written.
+     *
+     * @return the number of rows inserted or updated
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -323,25 +432,116 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                WeatherBulkWriter writer = new WeatherBulkWriter(db);
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                        if (writer.write(value) != WeatherBulkWriter.UNCHANGED
+                                && writer.getLastRowId() != -1) {
                             returnCount++;
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    writer.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                if (returnCount > 0) {
+                    notifyChange(uri);
+                }
                 return returnCount;
+            case SYNC_METRICS:
+                // A whole run at a time, trimmed once at the end
+                db.beginTransaction();
+                int metricsCount = 0;
+                try {
+                    for (ContentValues value : values) {
+                        if (db.insert(WeatherContract.SyncMetricsEntry.TABLE_NAME, null,
+                                value) != -1) {
+                            metricsCount++;
+                        }
+                    }
+                    db.execSQL(SQL_TRIM_SYNC_METRICS);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (metricsCount > 0) {
+                    getContext().getContentResolver().notifyChange(uri, null);
+                }
+                return metricsCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies all the operations in a single transaction.  Observers are told about each changed
+     * URI once, after the transaction commits, rather than once per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        BatchState batch = new BatchState();
+        ContentProviderResult[] results;
+        mBatchState.set(batch);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            batch.close();
+            db.endTransaction();
+            mBatchState.remove();
+        }
+        if (!batch.changedUris.isEmpty()) {
+            ForecastSnapshot.invalidate();
+        }
+        for (Uri uri : batch.changedUris) {
+            if (sUriMatcher.match(uri) == LOCATION) {
+                LocationIdCache.invalidate();
+            }
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    /**
+     * What applyBatch keeps for the operations running on its thread.
+     */
+    private static class BatchState {
+        // Change notifications held back until the whole batch is in
+        final Set<Uri> changedUris = new HashSet<>();
+        private WeatherBulkWriter mWeatherWriter;
+
+        WeatherBulkWriter getWeatherWriter(SQLiteDatabase db) {
+            if (mWeatherWriter == null) {
+                mWeatherWriter = new WeatherBulkWriter(db);
+            }
+            return mWeatherWriter;
+        }
+
+        void close() {
+            if (mWeatherWriter != null) {
+                mWeatherWriter.close();
+            }
+        }
+    }
+
+    private void notifyChange(Uri uri) {
+        BatchState batch = mBatchState.get();
+        if (batch != null) {
+            batch.changedUris.add(uri);
+        } else {
+            // The write has committed by now, so cached forecasts can be dropped
+            ForecastSnapshot.invalidate();
+            if (sUriMatcher.match(uri) == LOCATION) {
+                LocationIdCache.invalidate();
+            }
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
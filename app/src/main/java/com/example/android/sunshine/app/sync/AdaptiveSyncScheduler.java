@@ -0,0 +1,194 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+/**
+ * Works out how often the periodic sync should run, rather than every three hours whatever
+ * happens.
+ *
+ * The starting point is churn: an exponentially weighted average of how often a sync actually
+ * changed the forecast.  A forecast that keeps changing is synced up to every MIN_INTERVAL, one
+ * that keeps coming back the same down to every MAX_INTERVAL.  On top of that, the interval
+ * never goes over the old default while the app is being used, metered networks and a low
+ * battery stretch it, and charging shortens it.  The result always stays between the two
+ * limits.
+ */
+class AdaptiveSyncScheduler {
+    private static final String LOG_TAG = AdaptiveSyncScheduler.class.getSimpleName();
+
+    private static final String PREFS_NAME = "adaptive_sync";
+    private static final String KEY_CHURN = "churn";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_LAST_SYNC = "last_sync";
+    private static final String KEY_LAST_FOREGROUND = "last_foreground";
+    private static final String KEY_LAST_ATTEMPT = "last_attempt";
+
+    // Intervals, in seconds.  The default is what every sync used before.
+    static final int DEFAULT_INTERVAL = 60 * 180;
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // Weight of the latest sync in the churn average
+    static final float CHURN_WEIGHT = 0.2f;
+    // Churn to start from: the default interval sits at this point between the limits
+    static final float INITIAL_CHURN = (float) (Math.log((double) MAX_INTERVAL / DEFAULT_INTERVAL)
+            / Math.log((double) MAX_INTERVAL / MIN_INTERVAL));
+
+    // The app counts as in use for this long after it was last in the foreground
+    static final long RECENT_USE_MILLIS = 8 * 60 * 60 * 1000L;
+
+    static final float METERED_FACTOR = 1.5f;
+    static final float LOW_BATTERY_FACTOR = 2f;
+    static final float CHARGING_FACTOR = 0.75f;
+    static final float LOW_BATTERY_LEVEL = 0.15f;
+
+    // Intervals closer than this fraction to the current one aren't worth rescheduling for
+    static final float RESCHEDULE_THRESHOLD = 0.2f;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+
+    AdaptiveSyncScheduler(Context context) {
+        mContext = context;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the interval the periodic sync is scheduled at, in seconds.
+     */
+    int getInterval() {
+        return mPrefs.getInt(KEY_INTERVAL, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Records how a sync of the preferred location went and reschedules if the interval should
+     * change.  Only call this for syncs that reached the server and stored what came back.
+     *
+     * @param changed Whether the sync changed any of the stored forecast
+     */
+    void onSyncFinished(boolean changed, long now) {
+        float churn = mPrefs.getFloat(KEY_CHURN, INITIAL_CHURN);
+        churn = CHURN_WEIGHT * (changed ? 1 : 0) + (1 - CHURN_WEIGHT) * churn;
+        mPrefs.edit()
+                .putFloat(KEY_CHURN, churn)
+                .putLong(KEY_LAST_SYNC, now)
+                .apply();
+        reschedule(now);
+    }
+
+    /**
+     * Records that a sync ran, whether or not it got anywhere.
+     */
+    void onSyncAttempted(long now) {
+        mPrefs.edit().putLong(KEY_LAST_ATTEMPT, now).apply();
+    }
+
+    /**
+     * Records that the app is in use.  Brings the interval back down if it had been stretched,
+     * and asks for a sync if the forecast is older than the default interval.  Makes binder
+     * calls, so keep it off the UI thread.
+     */
+    void onAppForeground(long now) {
+        mPrefs.edit().putLong(KEY_LAST_FOREGROUND, now).apply();
+        reschedule(now);
+        long retryAt = new CircuitBreaker(mContext).getRetryAt(now);
+        if (shouldSyncOnForeground(now, mPrefs.getLong(KEY_LAST_SYNC, now),
+                mPrefs.getLong(KEY_LAST_ATTEMPT, 0), retryAt)) {
+            SunshineSyncAdapter.requestSync(mContext);
+        }
+    }
+
+    /**
+     * Works out whether opening the app should ask for a sync.  While the server is failing
+     * the forecast stays stale, so besides staleness this needs the circuit breaker closed and
+     * no attempt within MIN_INTERVAL; otherwise every visit would fire another doomed sync.
+     *
+     * @param lastSync When a sync last stored a forecast
+     * @param lastAttempt When a sync last ran, successful or not, or 0 if never
+     * @param retryAt When the circuit breaker lets fetches through again, or 0 if it does now
+     */
+    static boolean shouldSyncOnForeground(long now, long lastSync, long lastAttempt,
+                                          long retryAt) {
+        return now - lastSync > DEFAULT_INTERVAL * 1000L
+                && now - lastAttempt > MIN_INTERVAL * 1000L
+                && retryAt <= now;
+    }
+
+    private void reschedule(long now) {
+        float churn = mPrefs.getFloat(KEY_CHURN, INITIAL_CHURN);
+        boolean recentlyUsed = now - mPrefs.getLong(KEY_LAST_FOREGROUND, 0) < RECENT_USE_MILLIS;
+
+        ConnectivityManager cm =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        boolean metered = ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+
+        // Sticky broadcast: this just reads the last battery state, nothing is registered
+        Intent battery = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean charging = false;
+        float batteryLevel = -1;
+        if (battery != null) {
+            charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+                batteryLevel = level / (float) scale;
+            }
+        }
+
+        int interval = computeInterval(churn, recentlyUsed, metered, charging, batteryLevel);
+        int current = getInterval();
+        if (Math.abs(interval - current) < current * RESCHEDULE_THRESHOLD) {
+            return;
+        }
+        Log.d(LOG_TAG, "Sync interval " + current + "s -> " + interval + "s (churn " + churn
+                + ", in use " + recentlyUsed + ", metered " + metered + ", charging " + charging
+                + ", battery " + batteryLevel + ")");
+        setInterval(interval);
+    }
+
+    /**
+     * Stores the interval and schedules the periodic sync at it, in place of any other.
+     *
+     * @param interval The interval in seconds
+     */
+    void setInterval(int interval) {
+        mPrefs.edit().putInt(KEY_INTERVAL, interval).apply();
+        SunshineSyncAdapter.configurePeriodicSync(mContext, interval, interval / 3);
+    }
+
+    /**
+     * Works out the sync interval, in seconds.
+     *
+     * @param churn The weighted share of syncs that changed the forecast, from 0 to 1
+     * @param recentlyUsed Whether the app was in the foreground lately
+     * @param metered Whether the active network is metered
+     * @param charging Whether the device is plugged in
+     * @param batteryLevel The battery charge from 0 to 1, or -1 if unknown
+     */
+    static int computeInterval(float churn, boolean recentlyUsed, boolean metered,
+                               boolean charging, float batteryLevel) {
+        // Geometric between the limits, so each step of churn scales the interval alike
+        double interval = MAX_INTERVAL * Math.pow((double) MIN_INTERVAL / MAX_INTERVAL,
+                Math.max(0, Math.min(1, churn)));
+        if (recentlyUsed) {
+            interval = Math.min(interval, DEFAULT_INTERVAL);
+        }
+        if (metered) {
+            interval *= METERED_FACTOR;
+        }
+        if (charging) {
+            interval *= CHARGING_FACTOR;
+        } else if (batteryLevel >= 0 && batteryLevel < LOW_BATTERY_LEVEL) {
+            interval *= LOW_BATTERY_FACTOR;
+        }
+        return (int) Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, Math.round(interval)));
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Stops forecast fetches for a while once the server has failed too many times in a row, so
+ * a struggling server isn't kept busy by retries while it recovers.
+ *
+ * After FAILURE_THRESHOLD consecutive failures the breaker opens and every fetch fails
+ * straight away.  Once the open period is over a single fetch is let through as a probe: if
+ * it succeeds the breaker closes, if not it opens again.  The open period is jittered so that
+ * devices don't all probe together.  The state is kept in preferences, so it outlives the
+ * sync process.  Fetches run in parallel, so everything here is synchronized.
+ */
+class CircuitBreaker {
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    static final String PREFS_NAME = "circuit_breaker";
+    static final String KEY_FAILURES = "failures";
+    static final String KEY_RETRY_AT = "retry_at";
+
+    static final int FAILURE_THRESHOLD = 5;
+    // Average time the breaker stays open; the actual time is anywhere from half to one and
+    // a half times this
+    static final long OPEN_MILLIS = 15 * 60 * 1000L;
+
+    private final SharedPreferences mPrefs;
+    private final Random mRandom = new Random();
+    // Whether the probe of a half open breaker has been let through and not reported back yet
+    private boolean mProbing;
+
+    CircuitBreaker(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns whether a fetch may go to the server now.  Every fetch that is allowed must be
+     * followed by onSuccess, onFailure or onAbandoned.
+     */
+    synchronized boolean allowRequest(long now) {
+        if (mPrefs.getInt(KEY_FAILURES, 0) < FAILURE_THRESHOLD) {
+            return true;
+        }
+        if (mProbing || now < mPrefs.getLong(KEY_RETRY_AT, 0)) {
+            return false;
+        }
+        Log.d(LOG_TAG, "Half open, probing the server");
+        mProbing = true;
+        return true;
+    }
+
+    /**
+     * Records that the server answered.  Any answer counts, even one saying the location is
+     * unknown.
+     */
+    synchronized void onSuccess() {
+        mProbing = false;
+        int failures = mPrefs.getInt(KEY_FAILURES, 0);
+        if (failures == 0) {
+            return;
+        }
+        if (failures >= FAILURE_THRESHOLD) {
+            Log.i(LOG_TAG, "Closed, the server is back");
+        }
+        mPrefs.edit().putInt(KEY_FAILURES, 0).apply();
+    }
+
+    /**
+     * Records that the server couldn't be reached or answered with an error.
+     */
+    synchronized void onFailure(long now) {
+        int failures = mPrefs.getInt(KEY_FAILURES, 0) + 1;
+        SharedPreferences.Editor editor = mPrefs.edit().putInt(KEY_FAILURES, failures);
+        // Fetches that were already under way when it opened don't open it again
+        if (failures == FAILURE_THRESHOLD || mProbing) {
+            long openMillis = OPEN_MILLIS / 2 + (long) (mRandom.nextDouble() * OPEN_MILLIS);
+            Log.i(LOG_TAG, "Open for " + openMillis / 1000 + "s after " + failures
+                    + " consecutive failures");
+            editor.putLong(KEY_RETRY_AT, now + openMillis);
+        }
+        mProbing = false;
+        editor.apply();
+    }
+
+    /**
+     * Records that an allowed fetch was given up without an answer either way, such as when
+     * the sync was cancelled.  A half open breaker then lets another probe through.
+     */
+    synchronized void onAbandoned() {
+        mProbing = false;
+    }
+
+    /**
+     * Returns the wall clock time at which an open breaker will let a probe through, or 0 if
+     * it isn't open.
+     */
+    synchronized long getRetryAt(long now) {
+        if (mPrefs.getInt(KEY_FAILURES, 0) < FAILURE_THRESHOLD) {
+            return 0;
+        }
+        long retryAt = mPrefs.getLong(KEY_RETRY_AT, 0);
+        return retryAt > now ? retryAt : 0;
+    }
+}
@@ -0,0 +1,313 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Fetches and parses the forecast for one location query.  Nothing is written to the database
+ * here, which lets the sync adapter fetch several locations at once and store them together.
+ * Fetches that fail are retried according to a RetryPolicy, and none are made at all while
+ * the CircuitBreaker is open.  Connections come from the adapter's SyncHttpClient.
+ */
+class ForecastFetcher {
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    /**
+     * The outcome of fetching one location.
+     */
+    static class Result {
+        final String locationQuery;
+        @SunshineSyncAdapter.LocationStatus int status;
+        // The new forecast, or null if there was an error or nothing changed
+        ForecastJsonParser.Forecast forecast;
+        // Describes the response; store it once the forecast is in the database
+        ForecastResponseCache.Entry response;
+
+        Result(String locationQuery) {
+            this.locationQuery = locationQuery;
+        }
+    }
+
+    // Path of the daily forecast, relative to the base URL
+    private static final String FORECAST_PATH = "forecast/daily";
+
+    // Where forecasts are fetched from; tests point this at a local server
+    private static volatile String sBaseUrl = BuildConfig.OPEN_WEATHER_MAP_BASE_URL;
+    // How failed fetches are retried; tests shorten the delays
+    private static volatile RetryPolicy sRetryPolicy = RetryPolicy.DEFAULT;
+
+    private final Context mContext;
+    private final ForecastResponseCache mResponseCache;
+    private final CircuitBreaker mCircuitBreaker;
+    private final SyncHttpClient mHttpClient;
+    private final Random mRandom = new Random();
+
+    ForecastFetcher(Context context, ForecastResponseCache responseCache,
+                    CircuitBreaker circuitBreaker, SyncHttpClient httpClient) {
+        mContext = context;
+        mResponseCache = responseCache;
+        mCircuitBreaker = circuitBreaker;
+        mHttpClient = httpClient;
+    }
+
+    /**
+     * Points every fetch at another OpenWeatherMap compatible server, or back at the real one
+     * when passed null.  For tests.
+     */
+    static void setBaseUrl(String baseUrl) {
+        sBaseUrl = baseUrl != null ? baseUrl : BuildConfig.OPEN_WEATHER_MAP_BASE_URL;
+    }
+
+    /**
+     * Replaces the retry policy of every fetch, or restores the default when passed null.  For
+     * tests.
+     */
+    static void setRetryPolicy(RetryPolicy retryPolicy) {
+        sRetryPolicy = retryPolicy != null ? retryPolicy : RetryPolicy.DEFAULT;
+    }
+
+    /**
+     * Fetches the forecast for a location, asking the server only for what changed since the
+     * last stored response.  A fetch that leaves the status at LOCATION_STATUS_SERVER_DOWN is
+     * retried, sleeping on the calling thread in between; cancelling the sync or interrupting
+     * the thread stops the retries.  If the circuit breaker is open to begin with nothing is
+     * fetched and the status is LOCATION_STATUS_SERVER_BACKOFF.
+     *
+     * @param locationQuery The location string sent to OpenWeatherMap
+     * @param manualSync Whether the user asked for this sync, in which case a response that is
+     *                   still fresh is revalidated anyway
+     * @param now The wall clock time of the sync
+     * @param julianStartDay The local julian day the forecast will be dated from
+     * @param metrics Where to record how long each stage of the fetch took
+     */
+    Result fetch(String locationQuery, boolean manualSync, long now, int julianStartDay,
+                 SyncMetrics metrics) {
+        Result result = new Result(locationQuery);
+
+        // Only trust the validators of the last response if its rows are still in the database
+        ForecastResponseCache.Entry cachedResponse = mResponseCache.get(locationQuery);
+        boolean canRevalidate = cachedResponse.julianDay == julianStartDay
+                && hasForecastForToday(locationQuery);
+        if (canRevalidate && !manualSync && cachedResponse.isFresh(now, julianStartDay)) {
+            Log.d(LOG_TAG, "Forecast for " + locationQuery + " is still fresh");
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+            return result;
+        }
+
+        RetryPolicy retryPolicy = sRetryPolicy;
+        for (int attempt = 1; ; attempt++) {
+            if (!mCircuitBreaker.allowRequest(System.currentTimeMillis())) {
+                Log.d(LOG_TAG, "Circuit open, not fetching " + locationQuery);
+                // A retry cut short keeps the failure that came before it
+                if (attempt == 1) {
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_BACKOFF;
+                }
+                return result;
+            }
+            result = request(locationQuery, cachedResponse, canRevalidate, now, julianStartDay,
+                    metrics);
+            if (mHttpClient.isCanceled()) {
+                // Says nothing about the server
+                mCircuitBreaker.onAbandoned();
+                return result;
+            }
+            if (result.status != SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN) {
+                mCircuitBreaker.onSuccess();
+                return result;
+            }
+            mCircuitBreaker.onFailure(System.currentTimeMillis());
+            if (attempt >= retryPolicy.maxAttempts) {
+                return result;
+            }
+            long delay = retryPolicy.getDelayMillis(attempt, mRandom);
+            Log.d(LOG_TAG, "Fetch " + attempt + " of " + locationQuery + " failed, retrying in "
+                    + delay + "ms");
+            try {
+                if (!mHttpClient.sleep(delay)) {
+                    return result;
+                }
+            } catch (InterruptedException e) {
+                // The sync was cancelled
+                Thread.currentThread().interrupt();
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Makes a single request for the forecast of a location and parses the response.
+     */
+    private Result request(String locationQuery, ForecastResponseCache.Entry cachedResponse,
+                           boolean canRevalidate, long now, int julianStartDay,
+                           SyncMetrics metrics) {
+        Result result = new Result(locationQuery);
+
+        // This needs to be declared outside the try/catch
+        // so that it can be released in the finally block.
+        HttpURLConnection urlConnection = null;
+        // Whether the whole response was read, which lets the connection be reused
+        boolean consumed = false;
+
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
+
+        try {
+            // Construct the URL for the OpenWeatherMap query
+            // Possible parameters are avaiable at OWM's forecast API page, at
+            // http://openweathermap.org/API#forecast
+            final String QUERY_PARAM = "q";
+            final String FORMAT_PARAM = "mode";
+            final String UNITS_PARAM = "units";
+            final String DAYS_PARAM = "cnt";
+            final String APPID_PARAM = "APPID";
+
+            Uri builtUri = Uri.parse(sBaseUrl).buildUpon()
+                    .appendEncodedPath(FORECAST_PATH)
+                    .appendQueryParameter(QUERY_PARAM, locationQuery)
+                    .appendQueryParameter(FORMAT_PARAM, format)
+                    .appendQueryParameter(UNITS_PARAM, units)
+                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                    .build();
+
+            URL url = new URL(builtUri.toString());
+
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = mHttpClient.open(url);
+            urlConnection.setRequestMethod("GET");
+            if (canRevalidate) {
+                ForecastResponseCache.addConditionalHeaders(urlConnection, cachedResponse);
+            }
+            long connectStart = System.nanoTime();
+            urlConnection.connect();
+            long connected = System.nanoTime();
+            int responseCode = urlConnection.getResponseCode();
+            metrics.add(locationQuery, SyncMetricsEntry.STAGE_CONNECT,
+                    connected - connectStart, 0);
+            metrics.add(locationQuery, SyncMetricsEntry.STAGE_FIRST_BYTE,
+                    System.nanoTime() - connected, 0);
+
+            if (canRevalidate && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // What we have is still current; there is nothing to parse, store or fan out.
+                Log.d(LOG_TAG, "Forecast for " + locationQuery + " not modified");
+                result.response = ForecastResponseCache.fromResponse(urlConnection,
+                        cachedResponse, cachedResponse.checksum, julianStartDay, now);
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                consumed = true;
+                return result;
+            }
+
+            // Parse the forecast straight off the input stream, checksumming it on the way.  The
+            // download is metered before decoding, so it counts the bytes that went over the wire
+            InputStream inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                // Nothing to do.
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                return result;
+            }
+            MeteredInputStream meteredStream = new MeteredInputStream(inputStream);
+            CheckedInputStream checkedStream = new CheckedInputStream(
+                    SyncHttpClient.decode(urlConnection, meteredStream), new CRC32());
+            try {
+                long parseStart = System.nanoTime();
+                ForecastJsonParser.Forecast forecast = ForecastJsonParser.parse(checkedStream);
+                // The parser may stop before the end of the body; the checksum has to cover all
+                // of it
+                drain(checkedStream);
+                consumed = true;
+                long checksum = checkedStream.getChecksum().getValue();
+                long downloadNanos = meteredStream.getReadNanos();
+                metrics.add(locationQuery, SyncMetricsEntry.STAGE_DOWNLOAD,
+                        downloadNanos, meteredStream.getByteCount());
+                metrics.add(locationQuery, SyncMetricsEntry.STAGE_PARSE,
+                        System.nanoTime() - parseStart - downloadNanos, 0);
+
+                // do we have an error?
+                switch (forecast.messageCode) {
+                    case HttpURLConnection.HTTP_OK:
+                        break;
+                    case HttpURLConnection.HTTP_NOT_FOUND:
+                        result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                        return result;
+                    default:
+                        result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                        return result;
+                }
+
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                result.response = ForecastResponseCache.fromResponse(urlConnection,
+                        null, checksum, julianStartDay, now);
+                if (canRevalidate && checksum == cachedResponse.checksum) {
+                    // Servers without validators still send the same body when nothing changed
+                    Log.d(LOG_TAG, "Forecast for " + locationQuery + " unchanged");
+                } else {
+                    result.forecast = forecast;
+                }
+            } finally {
+                try {
+                    checkedStream.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (urlConnection != null) {
+                mHttpClient.release(urlConnection, consumed);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads whatever is left of a response so that it is fully accounted for.
+     */
+    private static void drain(InputStream in) throws IOException {
+        byte[] scratch = new byte[1024];
+        while (in.read(scratch) != -1) {
+            // keep reading
+        }
+    }
+
+    /**
+     * Returns whether the database already holds today's forecast for a location.
+     */
+    private boolean hasForecastForToday(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                        WeatherContract.WeatherEntry._ID},
+                null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+
+/**
+ * Parses the OpenWeatherMap daily forecast response into weather rows.
+ *
+ * On Honeycomb and higher the response is pulled token by token straight off the connection
+ * stream, so neither the body string nor a JSON object tree is ever materialised.  Older devices
+ * fall back to org.json.  The parse itself is ForecastParser, which the benchmarks share.
+ */
+class ForecastJsonParser {
+
+    /**
+     * The parts of a forecast response the sync adapter cares about.  Each day holds the weather
+     * columns only; the location key and date are filled in once the location is known.
+     */
+    static class Forecast implements ForecastParser.Handler {
+        int messageCode = HttpURLConnection.HTTP_OK;
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+        final ArrayList<ContentValues> days = new ArrayList<ContentValues>(16);
+
+        @Override
+        public void onCity(String name, double latitude, double longitude) {
+            cityName = name;
+            cityLatitude = latitude;
+            cityLongitude = longitude;
+        }
+
+        @Override
+        public void onDay(int weatherId, String description, double maxTemperature,
+                          double minTemperature, int humidity, double pressure, double windSpeed,
+                          double windDirection) {
+            ContentValues weatherValues = new ContentValues(12);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, maxTemperature);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, minTemperature);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+            days.add(weatherValues);
+        }
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Parses a forecast response from a stream, picking the streaming parser when available.
+     * The stream is not closed.
+     *
+     * @throws IOException if the stream could not be read
+     * @throws JSONException if the response is not a valid forecast
+     */
+    static Forecast parse(InputStream in) throws IOException, JSONException {
+        Forecast forecast = new Forecast();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            forecast.messageCode = parseStream(in, forecast);
+        } else {
+            forecast.messageCode = ForecastParser.parseLegacy(in, forecast);
+        }
+        if (forecast.messageCode != HttpURLConnection.HTTP_OK) {
+            // An error code after the list; the days read before it mean nothing
+            forecast.days.clear();
+        }
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int parseStream(InputStream in, Forecast forecast)
+            throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return ForecastParser.parseStream(new StreamReader(reader), forecast);
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static class StreamReader implements ForecastParser.Reader {
+        private final JsonReader mReader;
+
+        StreamReader(JsonReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public void beginObject() throws IOException {
+            mReader.beginObject();
+        }
+
+        @Override
+        public void endObject() throws IOException {
+            mReader.endObject();
+        }
+
+        @Override
+        public void beginArray() throws IOException {
+            mReader.beginArray();
+        }
+
+        @Override
+        public void endArray() throws IOException {
+            mReader.endArray();
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            return mReader.hasNext();
+        }
+
+        @Override
+        public boolean hasNextObject() throws IOException {
+            return mReader.hasNext() && mReader.peek() == JsonToken.BEGIN_OBJECT;
+        }
+
+        @Override
+        public String nextName() throws IOException {
+            return mReader.nextName();
+        }
+
+        @Override
+        public String nextString() throws IOException {
+            return mReader.nextString();
+        }
+
+        @Override
+        public double nextDouble() throws IOException {
+            return mReader.nextDouble();
+        }
+
+        @Override
+        public int nextInt() throws IOException {
+            return mReader.nextInt();
+        }
+
+        @Override
+        public void skipValue() throws IOException {
+            mReader.skipValue();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Remembers the validators (ETag, Last-Modified, Cache-Control) and a checksum of the last
+ * forecast response for each location query, so the next sync can ask the server whether
+ * anything changed and skip all the local work when it hasn't.
+ */
+class ForecastResponseCache {
+    static final String PREFS_NAME = "forecast_response_cache";
+
+    private static final String KEY_ETAG = "|etag";
+    private static final String KEY_LAST_MODIFIED = "|last_modified";
+    private static final String KEY_EXPIRES = "|expires";
+    private static final String KEY_CHECKSUM = "|checksum";
+    private static final String KEY_JULIAN_DAY = "|julian_day";
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String DIRECTIVE_MAX_AGE = "max-age=";
+    private static final String DIRECTIVE_NO_CACHE = "no-cache";
+    private static final String DIRECTIVE_NO_STORE = "no-store";
+
+    /**
+     * What we know about the last response for one location query.
+     */
+    static class Entry {
+        String etag;
+        String lastModified;
+        // Wall clock time until which the server said the response is fresh, 0 if unknown
+        long expires;
+        long checksum;
+        // Julian day the stored rows were dated from.  Rows are dated by their position in the
+        // response, so a response is only reusable on the day it was received.
+        int julianDay = -1;
+
+        boolean isFresh(long now, int today) {
+            return julianDay == today && now < expires;
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+
+    ForecastResponseCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    Entry get(String locationQuery) {
+        Entry entry = new Entry();
+        entry.etag = mPrefs.getString(locationQuery + KEY_ETAG, null);
+        entry.lastModified = mPrefs.getString(locationQuery + KEY_LAST_MODIFIED, null);
+        entry.expires = mPrefs.getLong(locationQuery + KEY_EXPIRES, 0);
+        entry.checksum = mPrefs.getLong(locationQuery + KEY_CHECKSUM, 0);
+        entry.julianDay = mPrefs.getInt(locationQuery + KEY_JULIAN_DAY, -1);
+        return entry;
+    }
+
+    /**
+     * Adds the conditional request headers for a previous response.  Must be called before the
+     * connection is opened.
+     */
+    static void addConditionalHeaders(HttpURLConnection urlConnection, Entry entry) {
+        if (entry.etag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, entry.etag);
+        }
+        if (entry.lastModified != null) {
+            urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, entry.lastModified);
+        }
+    }
+
+    /**
+     * Builds the entry describing a response.  For a 304 pass the previous entry and its
+     * checksum: servers may leave out headers that did not change, so those are carried over.
+     */
+    static Entry fromResponse(HttpURLConnection urlConnection, Entry previous, long checksum,
+                              int julianDay, long now) {
+        Entry entry = new Entry();
+        entry.etag = urlConnection.getHeaderField(HEADER_ETAG);
+        entry.lastModified = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+        if (previous != null) {
+            if (entry.etag == null) {
+                entry.etag = previous.etag;
+            }
+            if (entry.lastModified == null) {
+                entry.lastModified = previous.lastModified;
+            }
+        }
+        entry.expires = getExpires(urlConnection, now);
+        entry.checksum = checksum;
+        entry.julianDay = julianDay;
+        return entry;
+    }
+
+    /**
+     * Stores what we know about the last response for a location query.  Only call this once
+     * the forecast it describes is in the database.
+     */
+    void put(String locationQuery, Entry entry) {
+        mPrefs.edit()
+                .putString(locationQuery + KEY_ETAG, entry.etag)
+                .putString(locationQuery + KEY_LAST_MODIFIED, entry.lastModified)
+                .putLong(locationQuery + KEY_EXPIRES, entry.expires)
+                .putLong(locationQuery + KEY_CHECKSUM, entry.checksum)
+                .putInt(locationQuery + KEY_JULIAN_DAY, entry.julianDay)
+                .apply();
+    }
+
+    /**
+     * Works out until when a response may be reused without asking the server, preferring
+     * Cache-Control over Expires as HTTP/1.1 does.
+     */
+    private static long getExpires(HttpURLConnection urlConnection, long now) {
+        String cacheControl = urlConnection.getHeaderField(HEADER_CACHE_CONTROL);
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim();
+                if (directive.startsWith(DIRECTIVE_NO_CACHE)
+                        || directive.startsWith(DIRECTIVE_NO_STORE)) {
+                    return 0;
+                }
+                if (directive.startsWith(DIRECTIVE_MAX_AGE)) {
+                    try {
+                        long maxAgeSeconds = Long.parseLong(
+                                directive.substring(DIRECTIVE_MAX_AGE.length()));
+                        return now + maxAgeSeconds * 1000;
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        return urlConnection.getExpiration();
+    }
+}
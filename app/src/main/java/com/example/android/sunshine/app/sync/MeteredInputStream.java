@@ -0,0 +1,57 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it and the time spent waiting for them.  The forecast is
+ * parsed as it downloads, so this is what splits the download from the parse.
+ */
+class MeteredInputStream extends FilterInputStream {
+    private long mByteCount;
+    private long mReadNanos;
+
+    MeteredInputStream(InputStream in) {
+        super(in);
+    }
+
+    long getByteCount() {
+        return mByteCount;
+    }
+
+    long getReadNanos() {
+        return mReadNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = super.read();
+        mReadNanos += System.nanoTime() - start;
+        if (b != -1) {
+            mByteCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        long start = System.nanoTime();
+        int read = super.read(buffer, offset, count);
+        mReadNanos += System.nanoTime() - start;
+        if (read > 0) {
+            mByteCount += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long start = System.nanoTime();
+        long skipped = super.skip(count);
+        mReadNanos += System.nanoTime() - start;
+        mByteCount += skipped;
+        return skipped;
+    }
+}
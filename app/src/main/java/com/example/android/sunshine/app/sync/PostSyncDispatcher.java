@@ -0,0 +1,362 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.SuppressLint;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tells everything that shows the forecast outside the app (widgets, Muzei, the watch face and
+ * the daily notification) what a sync found for the preferred location.
+ *
+ * Every successful sync dispatches, whether or not it changed any rows: switching to a location
+ * another sync already keeps fresh changes nothing in the database but everything on screen.
+ * The update hands every consumer the same snapshot of the forecast and skips the consumers
+ * whose part of it, location included, is the same as the last time they were updated.
+ *
+ * There is deliberately no debounce.  The consumers run in parallel off the sync thread, but the
+ * sync waits for them: the sync manager only keeps the process alive while onPerformSync runs,
+ * and an update held back for a later sync could be lost with it.  The input keys are what stop
+ * back-to-back syncs updating twice; the second one finds nothing new and skips every consumer.
+ */
+class PostSyncDispatcher {
+    private static final String LOG_TAG = PostSyncDispatcher.class.getSimpleName();
+
+    // How long a sync waits for the consumers before leaving them to finish on their own
+    static final long UPDATE_TIMEOUT_MS = 30 * 1000;
+    private static final int CONSUMER_THREADS = 4;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int WEATHER_NOTIFICATION_ID = 3004;
+
+    /**
+     * Something that shows the forecast.
+     */
+    private abstract static class Consumer {
+        final String name;
+
+        Consumer(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Describes the part of the forecast this consumer shows.  The consumer only runs when
+         * this changes.
+         */
+        abstract String getInputKey(ForecastSnapshot snapshot, long now);
+
+        abstract void update(ForecastSnapshot snapshot);
+    }
+
+    private static PostSyncDispatcher sInstance;
+
+    private final Context mContext;
+    private final ExecutorService mExecutor;
+    private final Consumer[] mConsumers;
+    // Input key each consumer was last run with
+    private final ConcurrentHashMap<String, String> mLastInputKeys = new ConcurrentHashMap<>();
+
+    static synchronized PostSyncDispatcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PostSyncDispatcher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PostSyncDispatcher(Context context) {
+        mContext = context;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(CONSUMER_THREADS, CONSUMER_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        // Let the threads go when there is nothing to do, which is almost always
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+        mConsumers = new Consumer[]{
+                new Consumer("widgets") {
+                    @Override
+                    String getInputKey(ForecastSnapshot snapshot, long now) {
+                        // The detail widget lists every day from today
+                        StringBuilder key = new StringBuilder(snapshot.locationSetting)
+                                .append('|').append(Utility.isMetric(mContext));
+                        int first = snapshot.getFirstPositionFrom(now);
+                        if (first != -1) {
+                            for (int i = first; i < snapshot.getDayCount(); i++) {
+                                appendDay(key, snapshot.getDay(i));
+                            }
+                        }
+                        return key.toString();
+                    }
+
+                    @Override
+                    void update(ForecastSnapshot snapshot) {
+                        updateWidgets();
+                    }
+                },
+                new Consumer("muzei") {
+                    @Override
+                    String getInputKey(ForecastSnapshot snapshot, long now) {
+                        ForecastSnapshot.Day today = snapshot.getFirstDayFrom(now);
+                        return today == null ? "" : snapshot.locationSetting + '|' +
+                                today.weatherId + '|' + today.description;
+                    }
+
+                    @Override
+                    void update(ForecastSnapshot snapshot) {
+                        updateMuzei();
+                    }
+                },
+                new Consumer("wear") {
+                    @Override
+                    String getInputKey(ForecastSnapshot snapshot, long now) {
+                        // The watch gets the days from today that fit in its payload
+                        StringBuilder key = new StringBuilder(snapshot.locationSetting)
+                                .append('|').append(Utility.isMetric(mContext));
+                        int first = snapshot.getFirstPositionFrom(now);
+                        if (first != -1) {
+                            int end = Math.min(snapshot.getDayCount(),
+                                    first + WearForecastPayload.MAX_DAYS);
+                            for (int i = first; i < end; i++) {
+                                appendDay(key, snapshot.getDay(i));
+                            }
+                        }
+                        return key.toString();
+                    }
+
+                    @Override
+                    void update(ForecastSnapshot snapshot) {
+                        WearSyncService.sendUpdatesToDevice(mContext);
+                    }
+                },
+                new Consumer("notification") {
+                    @Override
+                    String getInputKey(ForecastSnapshot snapshot, long now) {
+                        StringBuilder key = new StringBuilder();
+                        ForecastSnapshot.Day today = snapshot.getDayOn(now);
+                        if (today != null) {
+                            appendDay(key, today);
+                        }
+                        return key.toString();
+                    }
+
+                    @Override
+                    void update(ForecastSnapshot snapshot) {
+                        notifyWeather(snapshot);
+                    }
+                }
+        };
+    }
+
+    private static void appendDay(StringBuilder key, ForecastSnapshot.Day day) {
+        key.append('|').append(day.date)
+                .append('|').append(day.weatherId)
+                .append('|').append(day.description)
+                .append('|').append(day.maxTemp)
+                .append('|').append(day.minTemp);
+    }
+
+    /**
+     * Updates the consumers after a successful sync, and returns once they are done
+     * or UPDATE_TIMEOUT_MS has passed.  Syncs that finish together take turns, so the later one
+     * only updates what the earlier one didn't.
+     *
+     * @param locationSetting The preferred location at the time of the sync
+     * @param runId The sync run, which the time spent updating each consumer is recorded under
+     */
+    synchronized void dispatch(String locationSetting, final long runId) {
+        // Read once here; every consumer in this process is then served this same snapshot
+        final ForecastSnapshot snapshot = ForecastSnapshot.publish(mContext, locationSetting);
+        long now = System.currentTimeMillis();
+        List<Future<?>> updates = new ArrayList<>(mConsumers.length);
+        for (final Consumer consumer : mConsumers) {
+            final String inputKey = consumer.getInputKey(snapshot, now);
+            String lastInputKey = mLastInputKeys.put(consumer.name, inputKey);
+            if (inputKey.equals(lastInputKey)) {
+                Log.d(LOG_TAG, "Nothing new for " + consumer.name);
+                continue;
+            }
+            updates.add(mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    try {
+                        consumer.update(snapshot);
+                        SyncMetrics.saveStage(mContext, runId,
+                                SyncMetricsEntry.STAGE_FAN_OUT_PREFIX + consumer.name,
+                                System.nanoTime() - start);
+                    } catch (RuntimeException e) {
+                        Log.e(LOG_TAG, "Error updating " + consumer.name, e);
+                        // Try again after the next sync
+                        mLastInputKeys.remove(consumer.name, inputKey);
+                    }
+                }
+            }));
+        }
+        awaitUpdates(updates);
+    }
+
+    private static void awaitUpdates(List<Future<?>> updates) {
+        long deadline = SystemClock.elapsedRealtime() + UPDATE_TIMEOUT_MS;
+        for (Future<?> update : updates) {
+            try {
+                update.get(Math.max(0, deadline - SystemClock.elapsedRealtime()),
+                        TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Log.w(LOG_TAG, "Consumers still running after " + UPDATE_TIMEOUT_MS + "ms");
+                return;
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error updating consumers", e.getCause());
+            } catch (InterruptedException e) {
+                // The sync was cancelled; the consumers carry on without it
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void updateWidgets() {
+        Context context = mContext;
+        // Setting the package ensures that only components in our app will receive the broadcast
+        Intent dataUpdatedIntent = new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .setPackage(context.getPackageName());
+        context.sendBroadcast(dataUpdatedIntent);
+    }
+
+    private void updateMuzei() {
+        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
+        // Muzei background on lower API level devices
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            Context context = mContext;
+            context.startService(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                    .setClass(context, WeatherMuzeiSource.class));
+        }
+    }
+
+    private void notifyWeather(ForecastSnapshot snapshot) {
+        Context context = mContext;
+        //checking the last update and notify if it' the first of the day
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
+        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+
+        if ( displayNotifications ) {
+
+            String lastNotificationKey = context.getString(R.string.pref_last_notification);
+            long lastSync = prefs.getLong(lastNotificationKey, 0);
+
+            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
+                // Last sync was more than 1 day ago, let's send a notification with the weather.
+                ForecastSnapshot.Day today = snapshot.getDayOn(System.currentTimeMillis());
+
+                if (today != null) {
+                    int weatherId = today.weatherId;
+                    double high = today.maxTemp;
+                    double low = today.minTemp;
+                    String desc = today.description;
+
+                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+                    Resources resources = context.getResources();
+                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
+                    // Prior to that, we use a fixed size
+                    @SuppressLint("InlinedApi")
+                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+                    @SuppressLint("InlinedApi")
+                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+                    // Retrieve the large icon
+                    Bitmap largeIcon;
+                    try {
+                        largeIcon = Glide.with(context)
+                                .load(artUrl)
+                                .asBitmap()
+                                .error(artResourceId)
+                                .fitCenter()
+                                .into(largeIconWidth, largeIconHeight).get();
+                    } catch (InterruptedException | ExecutionException e) {
+                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+                    }
+                    String title = context.getString(R.string.app_name);
+
+                    // Define the text of the forecast.
+                    String contentText = String.format(context.getString(R.string.format_notification),
+                            desc,
+                            Utility.formatTemperature(context, high),
+                            Utility.formatTemperature(context, low));
+
+                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
+                    // notifications.  Just throw in some data.
+                    NotificationCompat.Builder mBuilder =
+                            new NotificationCompat.Builder(context)
+                                    .setColor(resources.getColor(R.color.primary_light))
+                                    .setSmallIcon(iconId)
+                                    .setLargeIcon(largeIcon)
+                                    .setContentTitle(title)
+                                    .setContentText(contentText);
+
+                    // Make something interesting happen when the user clicks on the notification.
+                    // In this case, opening the app is sufficient.
+                    Intent resultIntent = new Intent(context, MainActivity.class);
+
+                    // The stack builder object will contain an artificial back stack for the
+                    // started Activity.
+                    // This ensures that navigating backward from the Activity leads out of
+                    // your application to the Home screen.
+                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+                    stackBuilder.addNextIntent(resultIntent);
+                    PendingIntent resultPendingIntent =
+                            stackBuilder.getPendingIntent(
+                                    0,
+                                    PendingIntent.FLAG_UPDATE_CURRENT
+                            );
+                    mBuilder.setContentIntent(resultPendingIntent);
+
+                    NotificationManager mNotificationManager =
+                            (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+
+                    //refreshing last sync
+                    SharedPreferences.Editor editor = prefs.edit();
+                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
+                    editor.commit();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * How many times to try a forecast fetch that failed, and how long to wait in between.  The
+ * wait grows exponentially with each retry and is then jittered over its whole range, so
+ * devices that failed against the same outage don't all come back at the same moment.
+ */
+class RetryPolicy {
+    static final RetryPolicy DEFAULT = new RetryPolicy(3, 2000, 30000);
+
+    // Attempts in total, the first one included
+    final int maxAttempts;
+    final long baseDelayMillis;
+    final long maxDelayMillis;
+
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Returns how long to wait before a retry, in milliseconds.
+     *
+     * @param retry Which retry this is, starting from 1
+     */
+    long getDelayMillis(int retry, Random random) {
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retry - 1, 20));
+        return (long) (random.nextDouble() * ceiling);
+    }
+}
@@ -2,83 +2,62 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
+import android.content.PeriodicSync;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.database.SQLException;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
-import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.LocationIdCache;
 import com.example.android.sunshine.app.data.WeatherContract;
-import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherSql;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
-    // 60 seconds (1 minute) * 180 = 3 hours
-    public static final int SYNC_INTERVAL = 60 * 180;
-    public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
-    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
-
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    // Sync extra asking for every location in the database to be refreshed, not just the
+    // preferred one
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "all_locations";
+    // Upper bounds for a sync of all tracked locations
+    private static final int MAX_TRACKED_LOCATIONS = 25;
+    private static final int MAX_PARALLEL_FETCHES = 4;
+    // Runs the foreground checks one at a time, off the UI thread
+    private static final ThreadPoolExecutor sForegroundExecutor = newForegroundExecutor();
+
 
     @Retention(RetentionPolicy.SOURCE)
-    @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
+    @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID, LOCATION_STATUS_SERVER_BACKOFF})
     public @interface LocationStatus {}
 
     public static final int LOCATION_STATUS_OK = 0;
@@ -86,401 +65,243 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_SERVER_INVALID = 2;
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
+    // The server failed so often that fetches are held off for a while without trying it
+    public static final int LOCATION_STATUS_SERVER_BACKOFF = 5;
+
+    private final ForecastResponseCache mResponseCache;
+    private final CircuitBreaker mCircuitBreaker;
+    private final SyncHttpClient mHttpClient;
+    private final ForecastFetcher mFetcher;
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize, new SyncHttpClient());
+    }
+
+    SunshineSyncAdapter(Context context, boolean autoInitialize, SyncHttpClient httpClient) {
         super(context, autoInitialize);
+        mResponseCache = new ForecastResponseCache(context);
+        mCircuitBreaker = new CircuitBreaker(context);
+        mHttpClient = httpClient;
+        mFetcher = new ForecastFetcher(context, mResponseCache, mCircuitBreaker, mHttpClient);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
+        mHttpClient.reset();
         String locationQuery = Utility.getPreferredLocation(getContext());
+        boolean manualSync = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        boolean allLocations = extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false);
+
+        // Rows are dated from the local day the forecast was fetched on, so every location
+        // fetched in this pass shares the same start day.
+        long now = System.currentTimeMillis();
+        long runStart = System.nanoTime();
+        SyncMetrics metrics = new SyncMetrics(now);
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianStartDay = Time.getJulianDay(now, dayTime.gmtoff);
+
+        ArrayList<String> locationQueries = new ArrayList<String>();
+        locationQueries.add(locationQuery);
+        if (allLocations) {
+            addTrackedLocations(locationQueries);
+        }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        List<ForecastFetcher.Result> results =
+                fetchForecasts(locationQueries, manualSync, now, julianStartDay, metrics);
+        if (mHttpClient.isCanceled()) {
+            // Whatever came back is incomplete, and the status shouldn't blame the server
+            Log.d(LOG_TAG, "Sync canceled");
+            return;
+        }
+        int changed = storeForecasts(results, julianStartDay, metrics);
 
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+        int status = LOCATION_STATUS_UNKNOWN;
+        for (ForecastFetcher.Result result : results) {
+            if (result.response != null && (result.forecast == null || changed >= 0)) {
+                mResponseCache.put(result.locationQuery, result.response);
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            if (result.locationQuery.equals(locationQuery)) {
+                // A forecast that couldn't be stored is our failure, not the server's
+                status = result.forecast != null && changed < 0
+                        ? LOCATION_STATUS_UNKNOWN : result.status;
+                setLocationStatus(getContext(), status);
             }
+        }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+        // Ask the sync manager not to bother until the server is worth trying again
+        long retryAt = mCircuitBreaker.getRetryAt(System.currentTimeMillis());
+        if (retryAt > 0) {
+            syncResult.delayUntil = retryAt / 1000;
+        }
+
+        metrics.add(null, SyncMetricsEntry.STAGE_TOTAL, System.nanoTime() - runStart, 0);
+        metrics.save(getContext());
+
+        if (status == LOCATION_STATUS_OK) {
+            // Even if nothing changed: the preferred location may be new to the consumers.
+            // Before returning, while the sync still keeps the process alive.
+            PostSyncDispatcher.getInstance(getContext()).dispatch(locationQuery, metrics.runId);
+        }
+        // Syncs run directly rather than by the sync manager (tests) have no schedule to adjust
+        if (account != null) {
+            AdaptiveSyncScheduler scheduler = new AdaptiveSyncScheduler(getContext());
+            scheduler.onSyncAttempted(now);
+            // Failed syncs say nothing about how often the forecast changes
+            if (status == LOCATION_STATUS_OK) {
+                scheduler.onSyncFinished(changed > 0, now);
             }
         }
-        return;
+        Log.d(LOG_TAG, "Sync Complete. " + Math.max(changed, 0) + " Changed for "
+                + results.size() + " location(s)");
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Stops a sync in progress.  Every connection is dropped, which ends a fetch stuck on a
+     * slow server straight away, rather than when its read times out.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    @Override
+    public void onSyncCanceled() {
+        mHttpClient.cancel();
+        super.onSyncCanceled();
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * Adds the location settings of every location in the database that isn't already in the
+     * list.
+     */
+    private void addTrackedLocations(List<String> locationQueries) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        while (cursor.moveToNext() && locationQueries.size() < MAX_TRACKED_LOCATIONS) {
+            String locationSetting = cursor.getString(0);
+            if (!locationQueries.contains(locationSetting)) {
+                locationQueries.add(locationSetting);
+            }
+        }
+        cursor.close();
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Fetches the forecasts for all the given locations, at most MAX_PARALLEL_FETCHES at a time.
+     * Results are in the same order as the location queries.
+     */
+    private List<ForecastFetcher.Result> fetchForecasts(List<String> locationQueries,
+            final boolean manualSync, final long now, final int julianStartDay,
+            final SyncMetrics metrics) {
+        ArrayList<ForecastFetcher.Result> results =
+                new ArrayList<ForecastFetcher.Result>(locationQueries.size());
+        if (locationQueries.size() == 1) {
+            // No need for a pool when there is just the one
+            results.add(mFetcher.fetch(locationQueries.get(0), manualSync, now, julianStartDay,
+                    metrics));
+            return results;
+        }
 
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(locationQueries.size(), MAX_PARALLEL_FETCHES));
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            ArrayList<Future<ForecastFetcher.Result>> futures =
+                    new ArrayList<Future<ForecastFetcher.Result>>(locationQueries.size());
+            for (final String query : locationQueries) {
+                futures.add(executor.submit(new Callable<ForecastFetcher.Result>() {
+                    @Override
+                    public ForecastFetcher.Result call() {
+                        return mFetcher.fetch(query, manualSync, now, julianStartDay, metrics);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.e(LOG_TAG, "Error fetching " + locationQueries.get(i), e);
+                    ForecastFetcher.Result failed =
+                            new ForecastFetcher.Result(locationQueries.get(i));
+                    failed.status = LOCATION_STATUS_SERVER_DOWN;
+                    results.add(failed);
                 }
             }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
+    /**
+     * Take the fetched forecasts and store them in the database, stamping each day with the
+     * location and a normalized date.  All locations go in as one bulk insert, so the provider
+     * writes them in a single transaction, observers hear about it once, and the count it
+     * returns leaves out the days it already had.  The days that have gone
+     * by are deleted afterwards, on their own so that the two can be timed apart; that only
+     * notifies anyone on the one sync a day that finds something to delete.
+     *
+     * @return the number of rows that actually changed, or -1 if the batch failed
+     */
+    private int storeForecasts(List<ForecastFetcher.Result> results, int julianStartDay,
+                               SyncMetrics metrics) {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.  We start at the day returned by local
+        // time (julianStartDay).  Otherwise this is a mess.
+
+        // now we work exclusively in UTC
+        Time dayTime = new Time();
+
+        ArrayList<ContentValues> rows = new ArrayList<ContentValues>();
+        for (ForecastFetcher.Result result : results) {
+            ForecastJsonParser.Forecast forecast = result.forecast;
+            if (forecast == null) {
+                continue;
+            }
+            long locationId = addLocation(result.locationQuery, forecast.cityName,
+                    forecast.cityLatitude, forecast.cityLongitude);
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+            for (int i = 0; i < forecast.days.size(); i++) {
+                ContentValues weatherValues = forecast.days.get(i);
 
                 // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
                 weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                        dayTime.setJulianDay(julianStartDay + i));
+                rows.add(weatherValues);
             }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
         }
-    }
 
-    private void updateWidgets() {
-        Context context = getContext();
-        // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
-        context.sendBroadcast(dataUpdatedIntent);
-    }
-
-    private void updateMuzei() {
-        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
-        // Muzei background on lower API level devices
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+        if (rows.isEmpty()) {
+            return 0;
         }
-    }
 
-    private void notifyWeather() {
-        Context context = getContext();
-        //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
-                }
-                cursor.close();
-            }
+        // The provider only writes, and only counts, the days that differ from what it has
+        int written;
+        long transactionStart = System.nanoTime();
+        try {
+            written = getContext().getContentResolver().bulkInsert(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    rows.toArray(new ContentValues[rows.size()]));
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error storing forecasts", e);
+            return -1;
         }
+        long pruneStart = System.nanoTime();
+        metrics.add(null, SyncMetricsEntry.STAGE_TRANSACTION, pruneStart - transactionStart, 0);
+
+        // delete old data so we don't build up an endless history
+        getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherSql.PRUNE_SELECTION,
+                new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
+        metrics.add(null, SyncMetricsEntry.STAGE_PRUNE, System.nanoTime() - pruneStart, 0);
+        return written;
     }
 
     /**
@@ -493,20 +314,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
+        // First, check if the location with this city name exists in the db.  Usually it does,
+        // and its id is already cached.
+        long locationId = LocationIdCache.get(getContext(), locationSetting);
 
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
+        if (locationId == -1) {
             // Now that the content provider is set up, inserting rows of data is pretty simple.
             // First create a ContentValues object to hold the data you want to insert.
             ContentValues locationValues = new ContentValues();
@@ -518,7 +330,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
 
-            // Finally, insert location data into the database.
+            // Finally, insert location data into the database.  The provider caches the new id.
             Uri insertedUri = getContext().getContentResolver().insert(
                     WeatherContract.LocationEntry.CONTENT_URI,
                     locationValues
@@ -528,30 +340,77 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             locationId = ContentUris.parseId(insertedUri);
         }
 
-        locationCursor.close();
         // Wait, that worked?  Yes!
         return locationId;
     }
 
     /**
-     * Helper method to schedule the sync adapter periodic execution
+     * Helper method to schedule the sync adapter periodic execution.  The interval normally
+     * comes from AdaptiveSyncScheduler.  This is the only periodic sync: any other is removed.
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
+        // Periodic syncs keep every tracked location warm, so switching between them doesn't
+        // need a cold sync
+        Bundle extras = new Bundle();
+        extras.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
+        // Periodic syncs are told apart by their extras.  The one with these extras is
+        // replaced, but any other, such as the one earlier versions added with none, would
+        // keep running next to it.
+        for (PeriodicSync periodicSync : ContentResolver.getPeriodicSyncs(account, authority)) {
+            if (!periodicSync.extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+                ContentResolver.removePeriodicSync(account, authority, periodicSync.extras);
+            }
+        }
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // we can enable inexact timers in our periodic sync
             SyncRequest request = new SyncRequest.Builder().
                     syncPeriodic(syncInterval, flexTime).
                     setSyncAdapter(account, authority).
-                    setExtras(new Bundle()).build();
+                    setExtras(extras).build();
             ContentResolver.requestSync(request);
         } else {
             ContentResolver.addPeriodicSync(account,
-                    authority, new Bundle(), syncInterval);
+                    authority, extras, syncInterval);
         }
     }
 
+    /**
+     * Lets the sync schedule know the app is in use, so the forecast isn't left to go stale
+     * while someone is looking at it.  Safe to call from the UI thread: the schedule is updated
+     * on a background thread.
+     */
+    public static void onAppForeground(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final long now = System.currentTimeMillis();
+        sForegroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                new AdaptiveSyncScheduler(appContext).onAppForeground(now);
+            }
+        });
+    }
+
+    private static ThreadPoolExecutor newForegroundExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        // Let the thread go between visits to the app
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Asks for a sync soon, leaving it to the sync manager when.  Unlike syncImmediately, this
+     * waits out any backoff and any delay a failed sync asked for.
+     */
+    static void requestSync(Context context) {
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
     /**
      * Helper method to have the sync adapter sync immediately
      * @param context The context used to access the account service
@@ -607,7 +466,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         /*
          * Since we've created an account
          */
-        SunshineSyncAdapter.configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
+        int syncInterval = new AdaptiveSyncScheduler(context).getInterval();
+        SunshineSyncAdapter.configurePeriodicSync(context, syncInterval, syncInterval / 3);
 
         /*
          * Without calling setSyncAutomatically, our periodic sync will not be enabled.
@@ -621,7 +481,20 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     public static void initializeSyncAdapter(Context context) {
-        getSyncAccount(context);
+        Account account = getSyncAccount(context);
+        if (account == null) {
+            return;
+        }
+        // Accounts made by earlier versions only have the periodic sync of the preferred
+        // location, and onAccountCreated never runs for them
+        String authority = context.getString(R.string.content_authority);
+        for (PeriodicSync periodicSync : ContentResolver.getPeriodicSyncs(account, authority)) {
+            if (periodicSync.extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+                return;
+            }
+        }
+        int syncInterval = new AdaptiveSyncScheduler(context).getInterval();
+        configurePeriodicSync(context, syncInterval, syncInterval / 3);
     }
 
     /**
@@ -0,0 +1,172 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens the HTTP connections of a sync adapter, so that they share the same settings and can
+ * all be cancelled together.
+ *
+ * - Timeouts: every connection gets a connect and a read timeout, so a stalled server can't
+ *   hold a sync thread forever.
+ * - Keep-alive: connections are never disconnected after a complete response.  Once the body
+ *   is read to the end the socket goes back to the platform's pool, and the next request to
+ *   the same server skips the handshake.
+ * - Gzip: responses are asked for compressed.  Setting Accept-Encoding ourselves means the
+ *   platform no longer decodes them, so callers read the body through decode().
+ * - Cancellation: cancel() disconnects everything in flight and fails any new connection
+ *   until the next sync starts.
+ */
+class SyncHttpClient {
+    private static final String LOG_TAG = SyncHttpClient.class.getSimpleName();
+
+    static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+    static final int DEFAULT_READ_TIMEOUT_MILLIS = 20000;
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+
+    // Error bodies longer than this aren't worth reading just to keep the connection
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+    private final Set<HttpURLConnection> mConnections =
+            Collections.newSetFromMap(new ConcurrentHashMap<HttpURLConnection, Boolean>());
+    private volatile boolean mCanceled;
+
+    SyncHttpClient() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    SyncHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Opens a connection.  Every connection opened must be handed back to release().
+     *
+     * @throws InterruptedIOException if the sync has been cancelled
+     */
+    HttpURLConnection open(URL url) throws IOException {
+        if (mCanceled) {
+            throw new InterruptedIOException("Sync canceled");
+        }
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(mConnectTimeoutMillis);
+        connection.setReadTimeout(mReadTimeoutMillis);
+        connection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP);
+        mConnections.add(connection);
+        // cancel() may have missed it
+        if (mCanceled) {
+            release(connection, false);
+            throw new InterruptedIOException("Sync canceled");
+        }
+        return connection;
+    }
+
+    /**
+     * Wraps the body of a response so that it reads decoded.
+     *
+     * @param body The response body as it came off the connection
+     */
+    static InputStream decode(HttpURLConnection connection, InputStream body) throws IOException {
+        if (ENCODING_GZIP.equalsIgnoreCase(connection.getContentEncoding())) {
+            return new GZIPInputStream(body);
+        }
+        return body;
+    }
+
+    /**
+     * Hands back a connection once the caller is done with it.  It is left for reuse if its
+     * response was read to the end, or can be; anything else is disconnected.
+     *
+     * @param consumed Whether the caller read the whole body and closed it
+     */
+    void release(HttpURLConnection connection, boolean consumed) {
+        mConnections.remove(connection);
+        if (mCanceled || !(consumed || drainErrorStream(connection))) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Disconnects every connection in flight, which fails their reads at once, and refuses
+     * new ones until the next sync starts.  Safe to call from any thread.
+     */
+    void cancel() {
+        synchronized (this) {
+            mCanceled = true;
+            notifyAll();
+        }
+        for (HttpURLConnection connection : mConnections) {
+            connection.disconnect();
+        }
+        mConnections.clear();
+    }
+
+    boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * Clears a cancel from an earlier sync.  Call at the start of every sync.
+     */
+    synchronized void reset() {
+        mCanceled = false;
+    }
+
+    /**
+     * Waits before retrying, returning early if the sync is cancelled in the meantime.
+     *
+     * @return false if the sync was cancelled
+     */
+    synchronized boolean sleep(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        long remaining = millis;
+        while (!mCanceled && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return !mCanceled;
+    }
+
+    /**
+     * Reads the body of an error response so its connection can be reused.
+     *
+     * @return whether the connection can be reused
+     */
+    private static boolean drainErrorStream(HttpURLConnection connection) {
+        // Null unless the server answered with an error
+        InputStream errorStream = connection.getErrorStream();
+        if (errorStream == null) {
+            return false;
+        }
+        try {
+            byte[] scratch = new byte[1024];
+            int total = 0;
+            int read;
+            while ((read = errorStream.read(scratch)) != -1) {
+                total += read;
+                if (total > MAX_DRAIN_BYTES) {
+                    return false;
+                }
+            }
+            errorStream.close();
+            return true;
+        } catch (IOException e) {
+            Log.d(LOG_TAG, "Error draining error response: " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects how long each stage of one sync run took, and stores them together at the end of
+ * the run.  Fetches add to it from several threads at once.
+ */
+class SyncMetrics {
+    private static final String LOG_TAG = SyncMetrics.class.getSimpleName();
+
+    final long runId;
+    private final ArrayList<ContentValues> mRows = new ArrayList<ContentValues>();
+
+    /**
+     * @param runId The wall clock time the run started
+     */
+    SyncMetrics(long runId) {
+        this.runId = runId;
+    }
+
+    /**
+     * Records a stage.
+     *
+     * @param locationSetting The location the stage worked on, or null for the whole run
+     * @param stage One of the SyncMetricsEntry.STAGE_ values
+     * @param nanos How long it took, in nanoseconds
+     * @param bytes How many bytes it moved
+     */
+    synchronized void add(String locationSetting, String stage, long nanos, long bytes) {
+        mRows.add(createRow(runId, locationSetting, stage, nanos, bytes));
+    }
+
+    /**
+     * Stores everything recorded so far.  Metrics are never worth failing a sync over, so
+     * errors are only logged.
+     */
+    synchronized void save(Context context) {
+        if (mRows.isEmpty()) {
+            return;
+        }
+        try {
+            context.getContentResolver().bulkInsert(SyncMetricsEntry.CONTENT_URI,
+                    mRows.toArray(new ContentValues[mRows.size()]));
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error storing sync metrics", e);
+        }
+        mRows.clear();
+    }
+
+    /**
+     * Stores a single stage of a run that has already been saved, such as a consumer updated
+     * after the sync finished.
+     */
+    static void saveStage(Context context, long runId, String stage, long nanos) {
+        try {
+            context.getContentResolver().insert(SyncMetricsEntry.CONTENT_URI,
+                    createRow(runId, null, stage, nanos, 0));
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error storing sync metrics", e);
+        }
+    }
+
+    private static ContentValues createRow(long runId, String locationSetting, String stage,
+                                           long nanos, long bytes) {
+        ContentValues values = new ContentValues(5);
+        values.put(SyncMetricsEntry.COLUMN_RUN_ID, runId);
+        values.put(SyncMetricsEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(SyncMetricsEntry.COLUMN_STAGE, stage);
+        values.put(SyncMetricsEntry.COLUMN_DURATION, TimeUnit.NANOSECONDS.toMicros(nanos));
+        values.put(SyncMetricsEntry.COLUMN_BYTES, bytes);
+        return values;
+    }
+}
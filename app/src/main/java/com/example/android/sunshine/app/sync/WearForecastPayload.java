@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the forecast the watch face shows as one small binary payload.  The watch reads it
+ * with its own ForecastPayloadReader; the two must agree on the format below, and
+ * FORMAT_VERSION changes whenever it does.
+ *
+ * <pre>
+ * byte   format version
+ * byte   type: full or delta
+ * byte   flags: whether temperatures are shown in Celsius
+ * int    payload version, one higher for every forecast sent
+ * int    (delta only) the payload version the delta applies to
+ * int    first day of the forecast, in days since the epoch, local time
+ * byte   number of days in the forecast
+ * byte   number of descriptions, each then written with writeUTF
+ * byte   number of days that follow; every day for a full payload, only the days that changed
+ *        for a delta.  Each day is:
+ *          byte   day, counted from the first day
+ *          short  weather id
+ *          byte   index of its description
+ *          short  high, in tenths of a degree Celsius
+ *          short  low, in tenths of a degree Celsius
+ * </pre>
+ */
+final class WearForecastPayload {
+    static final int FORMAT_VERSION = 1;
+    static final int TYPE_FULL = 0;
+    static final int TYPE_DELTA = 1;
+    static final int FLAG_METRIC = 1;
+
+    // The most days sent; the watch never shows more than a few
+    static final int MAX_DAYS = 7;
+
+    /**
+     * One day as the watch gets it.
+     */
+    static final class Day {
+        final int epochDay;
+        final int weatherId;
+        final String description;
+        final short maxTenths;
+        final short minTenths;
+
+        Day(int epochDay, int weatherId, String description, short maxTenths, short minTenths) {
+            this.epochDay = epochDay;
+            this.weatherId = weatherId;
+            this.description = description;
+            this.maxTenths = maxTenths;
+            this.minTenths = minTenths;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Day)) {
+                return false;
+            }
+            Day other = (Day) o;
+            return epochDay == other.epochDay && weatherId == other.weatherId
+                    && maxTenths == other.maxTenths && minTenths == other.minTenths
+                    && description.equals(other.description);
+        }
+
+        @Override
+        public int hashCode() {
+            return epochDay * 31 + weatherId;
+        }
+    }
+
+    private WearForecastPayload() {
+    }
+
+    /**
+     * Returns up to {@link #MAX_DAYS} days of the forecast, from today.
+     */
+    static Day[] fromSnapshot(ForecastSnapshot snapshot, long now) {
+        int first = snapshot.getFirstPositionFrom(now);
+        if (first == -1) {
+            return new Day[0];
+        }
+        int count = Math.min(MAX_DAYS, snapshot.getDayCount() - first);
+        Day[] days = new Day[count];
+        Time time = new Time();
+        for (int i = 0; i < count; i++) {
+            ForecastSnapshot.Day day = snapshot.getDay(first + i);
+            time.set(day.date);
+            int epochDay = Time.getJulianDay(day.date, time.gmtoff) - Time.EPOCH_JULIAN_DAY;
+            days[i] = new Day(epochDay, day.weatherId,
+                    day.description == null ? "" : day.description,
+                    toTenths(day.maxTemp), toTenths(day.minTemp));
+        }
+        return days;
+    }
+
+    /**
+     * Writes every day of the forecast.  The days must be consecutive.
+     */
+    static byte[] writeFull(int version, boolean metric, Day[] days) {
+        return write(TYPE_FULL, version, 0, metric, days, Arrays.asList(days));
+    }
+
+    /**
+     * Writes only the days that differ from the base forecast, the last one sent with
+     * baseVersion.  Returns null if a delta can't describe the change, in which case a full
+     * payload has to be sent.
+     */
+    static byte[] writeDelta(int version, int baseVersion, boolean metric, Day[] days,
+                             boolean baseMetric, Day[] base) {
+        if (metric != baseMetric) {
+            return null;
+        }
+        List<Day> changed = new ArrayList<>();
+        for (Day day : days) {
+            if (!day.equals(findDay(base, day.epochDay))) {
+                changed.add(day);
+            }
+        }
+        return write(TYPE_DELTA, version, baseVersion, metric, days, changed);
+    }
+
+    /**
+     * Reads back the days of a full payload written by {@link #writeFull}.
+     */
+    static Day[] readFullDays(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        if (in.readUnsignedByte() != FORMAT_VERSION || in.readUnsignedByte() != TYPE_FULL) {
+            throw new IOException("Not a full forecast payload");
+        }
+        in.readUnsignedByte();
+        in.readInt();
+        int firstDay = in.readInt();
+        Day[] days = new Day[in.readUnsignedByte()];
+        String[] descriptions = new String[in.readUnsignedByte()];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = in.readUTF();
+        }
+        int count = in.readUnsignedByte();
+        for (int i = 0; i < count; i++) {
+            int offset = in.readUnsignedByte();
+            days[offset] = new Day(firstDay + offset, in.readShort(),
+                    descriptions[in.readUnsignedByte()], in.readShort(), in.readShort());
+        }
+        return days;
+    }
+
+    /**
+     * Returns whether the flags of a payload say its temperatures are shown in Celsius.
+     */
+    static boolean readMetric(byte[] payload) {
+        return (payload[2] & FLAG_METRIC) != 0;
+    }
+
+    private static byte[] write(int type, int version, int baseVersion, boolean metric,
+                                Day[] days, List<Day> written) {
+        List<String> descriptions = new ArrayList<>();
+        for (Day day : written) {
+            if (!descriptions.contains(day.description)) {
+                descriptions.add(day.description);
+            }
+        }
+        int firstDay = days.length == 0 ? 0 : days[0].epochDay;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(FORMAT_VERSION);
+            out.writeByte(type);
+            out.writeByte(metric ? FLAG_METRIC : 0);
+            out.writeInt(version);
+            if (type == TYPE_DELTA) {
+                out.writeInt(baseVersion);
+            }
+            out.writeInt(firstDay);
+            out.writeByte(days.length);
+            out.writeByte(descriptions.size());
+            for (String description : descriptions) {
+                out.writeUTF(description);
+            }
+            out.writeByte(written.size());
+            for (Day day : written) {
+                out.writeByte(day.epochDay - firstDay);
+                out.writeShort(day.weatherId);
+                out.writeByte(descriptions.indexOf(day.description));
+                out.writeShort(day.maxTenths);
+                out.writeShort(day.minTenths);
+            }
+            out.close();
+        } catch (IOException e) {
+            // Can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Day findDay(Day[] days, int epochDay) {
+        for (Day day : days) {
+            if (day.epochDay == epochDay) {
+                return day;
+            }
+        }
+        return null;
+    }
+
+    private static short toTenths(double temperature) {
+        return (short) Math.round(temperature * 10);
+    }
+}
@@ -3,17 +3,17 @@ package com.example.android.sunshine.app.sync;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.support.annotation.Nullable;
+import android.util.Base64;
 import android.util.Log;
 
 import com.bumptech.glide.util.Util;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
@@ -21,11 +21,13 @@ import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.MessageEvent;
-import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
@@ -37,26 +39,19 @@ public class WearSyncService  extends WearableListenerService {
 
     public static final String COUNT_PATH = "/count";
 
-    public static final String WEATHER_ID ="weather_id";
-    public static final String MAX_TEMPERATURE="max_temp";
-    public static final String MINIMUM_TEMPERATURE="min_temp";
-    public static final String DESCRIPTION ="description";
-    private static final String IS_METRIC ="is_metric" ;
+    // For pushes after a sync, and requests that don't say which version the watch has
+    private static final int UNKNOWN_VERSION = -1;
 
+    // Holds a WearForecastPayload
+    private static final String FORECAST_PATH = "/forecast";
+
+    // The last full payload sent, which the next delta is worked out against
+    private static final String PAYLOAD_PREFS_NAME = "wear_forecast_payload";
+    private static final String PAYLOAD_KEY = "payload";
+    private static final String PAYLOAD_VERSION_KEY = "version";
 
-    GoogleApiClient mGoogleApiClient;
 
-    private static final String[] FORECAST_COLUMNS = {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
-    private static final int INDEX_MAX_TEMP = 2;
-    private static final int INDEX_MIN_TEMP = 3;
+    GoogleApiClient mGoogleApiClient;
 
     @Override
     public void onCreate() {
@@ -78,45 +73,81 @@ public class WearSyncService  extends WearableListenerService {
 
         // Check to see if the message is to start an activity
         if (messageEvent.getPath().equals(GET_LATEST_DATA)) {
-            sendLatestDataToDevice();
+            // The request carries the payload version the watch has
+            byte[] data = messageEvent.getData();
+            int watchVersion = data != null && data.length >= 4
+                    ? ByteBuffer.wrap(data).getInt() : UNKNOWN_VERSION;
+            sendLatestDataToDevice(true, watchVersion);
         }
     }
 
-    private void sendLatestDataToDevice(){
+    /**
+     * Puts the forecast on the data layer as a {@link WearForecastPayload}.  After a sync only
+     * the days that changed since the last payload are sent, and nothing at all if none did.
+     * When the watch asks, it gets every day, urgently, since it is waiting for them; but only
+     * if its version differs from ours.  Different rather than older, because our versions start
+     * over if the app's data is cleared.
+     */
+    private synchronized void sendLatestDataToDevice(boolean requested, int watchVersion) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
+        WearForecastPayload.Day[] days = WearForecastPayload.fromSnapshot(
+                ForecastSnapshot.get(this, location), System.currentTimeMillis());
+        if (days.length == 0) {
             return;
         }
-        if (!data.moveToFirst()) {
-            data.close();
-            return;
+        boolean metric = Utility.isMetric(this);
+
+        SharedPreferences prefs = getSharedPreferences(PAYLOAD_PREFS_NAME, MODE_PRIVATE);
+        int lastVersion = prefs.getInt(PAYLOAD_VERSION_KEY, 0);
+        WearForecastPayload.Day[] lastDays = null;
+        boolean lastMetric = false;
+        String lastPayload = prefs.getString(PAYLOAD_KEY, null);
+        if (lastPayload != null) {
+            try {
+                byte[] bytes = Base64.decode(lastPayload, Base64.DEFAULT);
+                lastDays = WearForecastPayload.readFullDays(bytes);
+                lastMetric = WearForecastPayload.readMetric(bytes);
+            } catch (IOException | IllegalArgumentException e) {
+                Log.e(TAG, "Discarding the last forecast sent to the watch", e);
+            }
         }
 
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        data.close();
-
-        PutDataMapRequest dataMap = PutDataMapRequest.create("/weather");
-        dataMap.getDataMap().putInt(WEATHER_ID,weatherId);
-        dataMap.getDataMap().putString(DESCRIPTION,description);
-        dataMap.getDataMap().putDouble(MAX_TEMPERATURE,maxTemp);
-        dataMap.getDataMap().putDouble(MINIMUM_TEMPERATURE,minTemp);
-        dataMap.getDataMap().putBoolean(IS_METRIC, Utility.isMetric(this));
-        //dataMap.getDataMap().putLong("time", new Date().getTime());
-        PutDataRequest request = dataMap.asPutDataRequest();
-        request.setUrgent();
+        boolean changed = lastDays == null || metric != lastMetric
+                || !Arrays.equals(days, lastDays);
+        if (!changed && !requested) {
+            LOGD(TAG, "Watch already has this forecast");
+            return;
+        }
+        int version = changed ? lastVersion + 1 : lastVersion;
+        if (requested && version == watchVersion) {
+            LOGD(TAG, "Watch already has version " + version);
+            return;
+        }
+        byte[] full = WearForecastPayload.writeFull(version, metric, days);
+        byte[] payload = full;
+        if (!requested && lastDays != null) {
+            byte[] delta = WearForecastPayload.writeDelta(version, lastVersion, metric, days,
+                    lastMetric, lastDays);
+            if (delta != null && delta.length < full.length) {
+                payload = delta;
+            }
+        }
+        prefs.edit()
+                .putInt(PAYLOAD_VERSION_KEY, version)
+                .putString(PAYLOAD_KEY, Base64.encodeToString(full, Base64.DEFAULT))
+                .apply();
+
+        PutDataRequest request = PutDataRequest.create(FORECAST_PATH).setData(payload);
+        if (requested) {
+            request.setUrgent();
+        }
+        final int size = payload.length;
         Wearable.DataApi.putDataItem(mGoogleApiClient, request)
                 .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
                     @Override
                     public void onResult(DataApi.DataItemResult dataItemResult) {
-                        LOGD(TAG, "Weather update have been sent " + dataItemResult.getStatus()
-                                .isSuccess());
+                        LOGD(TAG, "Weather update of " + size + " bytes have been sent "
+                                + dataItemResult.getStatus().isSuccess());
                     }
                 });
     }
@@ -138,12 +169,12 @@ public class WearSyncService  extends WearableListenerService {
 
         if (intent!=null && intent.getBooleanExtra("send_data",false)) {
             if (mGoogleApiClient.isConnected()) {
-                sendLatestDataToDevice();
+                sendLatestDataToDevice(false, UNKNOWN_VERSION);
             } else {
                 mGoogleApiClient.registerConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
                     @Override
                     public void onConnected(@Nullable Bundle bundle) {
-                        sendLatestDataToDevice();
+                        sendLatestDataToDevice(false, UNKNOWN_VERSION);
                     }
 
                     @Override
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import com.example.android.sunshine.app.data.WeatherTables.Location;
+import com.example.android.sunshine.app.data.WeatherTables.Weather;
+
+/**
+ * The SQL of the location and weather tables that the sync's hot path runs: the schema, the
+ * statements WeatherBulkWriter writes rows with, and the selections of the prune and the
+ * forecast list.  Plain Java, so the JVM benchmarks run the same statements as the app.
+ */
+public final class WeatherSql {
+
+    private WeatherSql() {
+    }
+
+    // A location consists of the string supplied in the location setting, the city name, and
+    // the latitude and longitude
+    public static final String CREATE_LOCATION_TABLE = "CREATE TABLE " + Location.TABLE_NAME + " (" +
+            WeatherTables.COLUMN_ID + " INTEGER PRIMARY KEY," +
+            Location.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
+            Location.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
+            Location.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+            Location.COLUMN_COORD_LONG + " REAL NOT NULL " +
+            " );";
+
+    public static final String CREATE_WEATHER_TABLE = "CREATE TABLE " + Weather.TABLE_NAME + " (" +
+            // Why AutoIncrement here, and not above?
+            // Unique keys will be auto-generated in either case.  But for weather
+            // forecasting, it's reasonable to assume the user will want information
+            // for a certain date and all dates *following*, so the forecast data
+            // should be sorted accordingly.
+            WeatherTables.COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+            // the ID of the location entry associated with this weather data
+            Weather.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+            Weather.COLUMN_DATE + " INTEGER NOT NULL, " +
+            Weather.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+            Weather.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+            Weather.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+            Weather.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+
+            Weather.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+            Weather.COLUMN_PRESSURE + " REAL NOT NULL, " +
+            Weather.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+            Weather.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+            // Set up the location column as a foreign key to location table.
+            " FOREIGN KEY (" + Weather.COLUMN_LOC_KEY + ") REFERENCES " +
+            Location.TABLE_NAME + " (" + WeatherTables.COLUMN_ID + "), " +
+
+            // To assure the application have just one weather entry per day
+            // per location, it's created a UNIQUE constraint with REPLACE strategy
+            " UNIQUE (" + Weather.COLUMN_DATE + ", " +
+            Weather.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
+
+    // Covers the forecast list: every weather column the list shows, ordered the way the
+    // provider looks them up (one location, from a date onwards), so the list query never has
+    // to touch the weather table itself.
+    public static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    public static final String CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_LOCATION_DATE +
+                    " ON " + Weather.TABLE_NAME + " (" +
+                    Weather.COLUMN_LOC_KEY + ", " +
+                    Weather.COLUMN_DATE + ", " +
+                    Weather.COLUMN_WEATHER_ID + ", " +
+                    Weather.COLUMN_SHORT_DESC + ", " +
+                    Weather.COLUMN_MAX_TEMP + ", " +
+                    Weather.COLUMN_MIN_TEMP + ");";
+
+    // The columns of a complete weather row, in the order the lookup and the insert below take
+    // them as parameters.  Don't modify.
+    public static final String[] ROW_COLUMNS = {
+            Weather.COLUMN_LOC_KEY,
+            Weather.COLUMN_DATE,
+            Weather.COLUMN_WEATHER_ID,
+            Weather.COLUMN_SHORT_DESC,
+            Weather.COLUMN_MIN_TEMP,
+            Weather.COLUMN_MAX_TEMP,
+            Weather.COLUMN_HUMIDITY,
+            Weather.COLUMN_PRESSURE,
+            Weather.COLUMN_WIND_SPEED,
+            Weather.COLUMN_DEGREES
+    };
+
+    //SELECT coalesce((SELECT _id FROM weather WHERE location_id = ? AND date = ? AND ...), -1)
+    public static final String FIND_IDENTICAL_ROW;
+    //SELECT coalesce((SELECT _id FROM weather WHERE location_id = ? AND date = ?), -1)
+    public static final String FIND_ROW =
+            "SELECT coalesce((SELECT " + WeatherTables.COLUMN_ID +
+                    " FROM " + Weather.TABLE_NAME +
+                    " WHERE " + Weather.COLUMN_LOC_KEY + " = ? AND " +
+                    Weather.COLUMN_DATE + " = ?), -1)";
+    //INSERT INTO weather (location_id, date, ...) VALUES (?, ?, ...)
+    public static final String INSERT;
+    //UPDATE weather SET weather_id = ?, ... WHERE _id = ?
+    public static final String UPDATE;
+
+    static {
+        StringBuilder identical = new StringBuilder("SELECT coalesce((SELECT ")
+                .append(WeatherTables.COLUMN_ID).append(" FROM ").append(Weather.TABLE_NAME)
+                .append(" WHERE ");
+        StringBuilder insert = new StringBuilder("INSERT INTO ")
+                .append(Weather.TABLE_NAME).append(" (");
+        StringBuilder values = new StringBuilder(") VALUES (");
+        StringBuilder update = new StringBuilder("UPDATE ")
+                .append(Weather.TABLE_NAME).append(" SET ");
+        for (int i = 0; i < ROW_COLUMNS.length; i++) {
+            if (i > 0) {
+                identical.append(" AND ");
+                insert.append(", ");
+                values.append(", ");
+            }
+            identical.append(ROW_COLUMNS[i]).append(" = ?");
+            insert.append(ROW_COLUMNS[i]);
+            values.append('?');
+            // location and date are what identify the row, they never change
+            if (i > 1) {
+                if (i > 2) {
+                    update.append(", ");
+                }
+                update.append(ROW_COLUMNS[i]).append(" = ?");
+            }
+        }
+        FIND_IDENTICAL_ROW = identical.append("), -1)").toString();
+        INSERT = insert.append(values).append(')').toString();
+        UPDATE = update.append(" WHERE ").append(WeatherTables.COLUMN_ID).append(" = ?")
+                .toString();
+    }
+
+    // The days that have gone by, deleted after every sync
+    //date <= ?
+    public static final String PRUNE_SELECTION = Weather.COLUMN_DATE + " <= ?";
+
+    // The forecast list of one location from a date onwards
+    //weather.location_id = ? AND date >= ?
+    public static final String LOCATION_ID_WITH_START_DATE_SELECTION =
+            Weather.TABLE_NAME + "." + Weather.COLUMN_LOC_KEY + " = ? AND " +
+                    Weather.COLUMN_DATE + " >= ? ";
+}
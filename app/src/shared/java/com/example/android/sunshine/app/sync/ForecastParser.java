@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Reads the OpenWeatherMap daily forecast response.  Plain Java, so the JVM benchmarks run the
+ * same parse as the sync: ForecastJsonParser feeds it android.util.JsonReader, the benchmarks
+ * Gson's reader, which has the same API.
+ */
+public final class ForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Bits tracking which of the required day fields have been seen
+    private static final int DAY_PRESSURE = 1;
+    private static final int DAY_HUMIDITY = 1 << 1;
+    private static final int DAY_WINDSPEED = 1 << 2;
+    private static final int DAY_WIND_DIRECTION = 1 << 3;
+    private static final int DAY_MAX = 1 << 4;
+    private static final int DAY_MIN = 1 << 5;
+    private static final int DAY_DESCRIPTION = 1 << 6;
+    private static final int DAY_WEATHER_ID = 1 << 7;
+    private static final int DAY_COMPLETE = (1 << 8) - 1;
+
+    /**
+     * The part of a streaming JSON reader the parse uses, named as in android.util.JsonReader.
+     */
+    public interface Reader {
+        void beginObject() throws IOException;
+
+        void endObject() throws IOException;
+
+        void beginArray() throws IOException;
+
+        void endArray() throws IOException;
+
+        boolean hasNext() throws IOException;
+
+        /**
+         * Returns whether the next value in the current array is an object.
+         */
+        boolean hasNextObject() throws IOException;
+
+        String nextName() throws IOException;
+
+        String nextString() throws IOException;
+
+        double nextDouble() throws IOException;
+
+        int nextInt() throws IOException;
+
+        void skipValue() throws IOException;
+    }
+
+    /**
+     * Receives the parts of the response the sync adapter cares about.  Days are handed over as
+     * they are read, before the rest of the response has been checked: unless the parse returns
+     * HTTP_OK, whatever was handed over must be thrown away.
+     */
+    public interface Handler {
+        void onCity(String name, double latitude, double longitude);
+
+        void onDay(int weatherId, String description, double maxTemperature,
+                   double minTemperature, int humidity, double pressure, double windSpeed,
+                   double windDirection);
+    }
+
+    private ForecastParser() {
+    }
+
+    /**
+     * Pulls a forecast response token by token, so neither the body string nor a JSON object
+     * tree is ever materialised.  The city is handed over last, once the whole response has
+     * been checked.
+     *
+     * @return the response's message code; unless it is HTTP_OK, discard any days handed over
+     * @throws IOException if the response could not be read
+     * @throws JSONException if the response is not a valid forecast
+     */
+    public static int parseStream(Reader reader, Handler handler)
+            throws IOException, JSONException {
+        City city = new City();
+        boolean hasList = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    // "cod" comes back as a number on success and as a string on errors
+                    int messageCode = reader.nextInt();
+                    if (messageCode != HttpURLConnection.HTTP_OK) {
+                        // Nothing else in an error response is of any use to us
+                        return messageCode;
+                    }
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, city);
+                } else if (OWM_LIST.equals(name)) {
+                    hasList = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readDay(reader, handler);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
+        }
+
+        if (city.name == null || !city.hasCoord) {
+            throw new JSONException("Forecast response has no city");
+        }
+        if (!hasList) {
+            throw new JSONException("Forecast response has no list");
+        }
+        handler.onCity(city.name, city.latitude, city.longitude);
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    private static class City {
+        String name;
+        double latitude;
+        double longitude;
+        boolean hasCoord;
+    }
+
+    private static void readCity(Reader reader, City city) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                city.name = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                int seen = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        city.latitude = reader.nextDouble();
+                        seen |= 1;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        city.longitude = reader.nextDouble();
+                        seen |= 2;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                city.hasCoord = seen == 3;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readDay(Reader reader, Handler handler)
+            throws IOException, JSONException {
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        double maxTemperature = 0;
+        double minTemperature = 0;
+        String description = null;
+        int weatherId = 0;
+        int seen = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+                seen |= DAY_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                humidity = (int) reader.nextDouble();
+                seen |= DAY_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+                seen |= DAY_WINDSPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+                seen |= DAY_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        maxTemperature = reader.nextDouble();
+                        seen |= DAY_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        minTemperature = reader.nextDouble();
+                        seen |= DAY_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNextObject()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            description = reader.nextString();
+                            seen |= DAY_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherId = reader.nextInt();
+                            seen |= DAY_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (seen != DAY_COMPLETE) {
+            throw new JSONException("Forecast day is missing required fields");
+        }
+        handler.onDay(weatherId, description, maxTemperature, minTemperature, humidity,
+                pressure, windSpeed, windDirection);
+    }
+
+    /**
+     * Reads the whole body and lets org.json build the object hierarchy, for Gingerbread, which
+     * has no streaming JSON reader.  The stream is not closed.
+     *
+     * @return the response's message code; no days are handed over unless it is HTTP_OK
+     * @throws IOException if the stream could not be read or was empty
+     * @throws JSONException if the response is not a valid forecast
+     */
+    public static int parseLegacy(InputStream in, Handler handler)
+            throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        StringBuilder buffer = new StringBuilder();
+        char[] chunk = new char[4096];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+        }
+        if (buffer.length() == 0) {
+            throw new IOException("Empty forecast response");
+        }
+
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (messageCode != HttpURLConnection.HTTP_OK) {
+                return messageCode;
+            }
+        }
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        String cityName = cityJson.getString(OWM_CITY_NAME);
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            handler.onDay(weatherObject.getInt(OWM_WEATHER_ID),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    temperatureObject.getDouble(OWM_MAX),
+                    temperatureObject.getDouble(OWM_MIN),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    dayForecast.getDouble(OWM_PRESSURE),
+                    dayForecast.getDouble(OWM_WINDSPEED),
+                    dayForecast.getDouble(OWM_WIND_DIRECTION));
+        }
+        handler.onCity(cityName, cityLatitude, cityLongitude);
+        return HttpURLConnection.HTTP_OK;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmark;
+
+import com.example.android.sunshine.app.sync.ForecastParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Runs the app's ForecastParser, both paths, the way sync/ForecastJsonParser does: Gson's
+ * JsonReader stands in for android.util.JsonReader (the same API; Android's was taken from
+ * Gson) and a HashMap for ContentValues (which is one).
+ */
+final class ForecastParsers {
+
+    private ForecastParsers() {
+    }
+
+    static List<HashMap<String, Object>> parseStream(InputStream in)
+            throws IOException, JSONException {
+        Days days = new Days();
+        if (ForecastParser.parseStream(
+                new GsonReader(new JsonReader(new InputStreamReader(in, "UTF-8"))), days)
+                != HttpURLConnection.HTTP_OK) {
+            days.list.clear();
+        }
+        return days.list;
+    }
+
+    static List<HashMap<String, Object>> parseLegacy(InputStream in)
+            throws IOException, JSONException {
+        Days days = new Days();
+        ForecastParser.parseLegacy(in, days);
+        return days.list;
+    }
+
+    /**
+     * Collects the days as ForecastJsonParser.Forecast does.
+     */
+    private static class Days implements ForecastParser.Handler {
+        final List<HashMap<String, Object>> list = new ArrayList<>(16);
+
+        @Override
+        public void onCity(String name, double latitude, double longitude) {
+        }
+
+        @Override
+        public void onDay(int weatherId, String description, double maxTemperature,
+                          double minTemperature, int humidity, double pressure, double windSpeed,
+                          double windDirection) {
+            HashMap<String, Object> values = new HashMap<>(12);
+            values.put("humidity", humidity);
+            values.put("pressure", pressure);
+            values.put("wind", windSpeed);
+            values.put("degrees", windDirection);
+            values.put("max", maxTemperature);
+            values.put("min", minTemperature);
+            values.put("short_desc", description);
+            values.put("weather_id", weatherId);
+            list.add(values);
+        }
+    }
+
+    private static class GsonReader implements ForecastParser.Reader {
+        private final JsonReader mReader;
+
+        GsonReader(JsonReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public void beginObject() throws IOException {
+            mReader.beginObject();
+        }
+
+        @Override
+        public void endObject() throws IOException {
+            mReader.endObject();
+        }
+
+        @Override
+        public void beginArray() throws IOException {
+            mReader.beginArray();
+        }
+
+        @Override
+        public void endArray() throws IOException {
+            mReader.endArray();
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            return mReader.hasNext();
+        }
+
+        @Override
+        public boolean hasNextObject() throws IOException {
+            return mReader.hasNext() && mReader.peek() == JsonToken.BEGIN_OBJECT;
+        }
+
+        @Override
+        public String nextName() throws IOException {
+            return mReader.nextName();
+        }
+
+        @Override
+        public String nextString() throws IOException {
+            return mReader.nextString();
+        }
+
+        @Override
+        public double nextDouble() throws IOException {
+            return mReader.nextDouble();
+        }
+
+        @Override
+        public int nextInt() throws IOException {
+            return mReader.nextInt();
+        }
+
+        @Override
+        public void skipValue() throws IOException {
+            mReader.skipValue();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Utility formatting functions the widgets, notification and list call for every day they
+ * show, with the format strings from the app's strings.xml inlined.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormattingBenchmark {
+
+    private static final String FORMAT_TEMPERATURE = "%1.0f\u00B0";
+    private static final String FORMAT_WIND_KMH = "%1$1.0f km/h %2$s";
+
+    private double mTemperature = 21.37;
+    private float mWindSpeed = 5.5f;
+    private float mDegrees = 247.5f;
+    private long mDate = 1463904000000L;
+
+    @Benchmark
+    public String formatTemperature() {
+        return String.format(FORMAT_TEMPERATURE, mTemperature);
+    }
+
+    @Benchmark
+    public String formatFahrenheit() {
+        return String.format(FORMAT_TEMPERATURE, (mTemperature * 1.8) + 32);
+    }
+
+    @Benchmark
+    public String getFormattedWind() {
+        float degrees = mDegrees;
+        String direction = "Unknown";
+        if (degrees >= 337.5 || degrees < 22.5) {
+            direction = "N";
+        } else if (degrees >= 22.5 && degrees < 67.5) {
+            direction = "NE";
+        } else if (degrees >= 67.5 && degrees < 112.5) {
+            direction = "E";
+        } else if (degrees >= 112.5 && degrees < 157.5) {
+            direction = "SE";
+        } else if (degrees >= 157.5 && degrees < 202.5) {
+            direction = "S";
+        } else if (degrees >= 202.5 && degrees < 247.5) {
+            direction = "SW";
+        } else if (degrees >= 247.5 && degrees < 292.5) {
+            direction = "W";
+        } else if (degrees >= 292.5 && degrees < 337.5) {
+            direction = "NW";
+        }
+        return String.format(FORMAT_WIND_KMH, mWindSpeed, direction);
+    }
+
+    @Benchmark
+    public String formatDate() {
+        return DateFormat.getDateInstance().format(new Date(mDate));
+    }
+
+    @Benchmark
+    public String getFriendlyDayString() {
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        return monthDayFormat.format(mDate);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalizing the dates of a 16 day forecast to the start of their days, the way
+ * WeatherContract.normalizeDate does it (a new Time per date) and the way the provider's
+ * DayNormalizer does it (one reused Time and the last day's bounds).  Calendar stands in for
+ * android.text.format.Time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NormalizeDateBenchmark {
+
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final long[] mDates = new long[16];
+
+    @Setup
+    public void makeDates() {
+        // Midday on 16 days in a row
+        long start = 1463904000000L + DAY_IN_MILLIS / 2;
+        for (int i = 0; i < mDates.length; i++) {
+            mDates[i] = start + i * DAY_IN_MILLIS;
+        }
+    }
+
+    @Benchmark
+    public long normalizeDate() {
+        long sum = 0;
+        for (long date : mDates) {
+            sum += normalize(date);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long dayNormalizer() {
+        DayNormalizer normalizer = new DayNormalizer();
+        long sum = 0;
+        for (long date : mDates) {
+            sum += normalizer.normalize(date);
+        }
+        return sum;
+    }
+
+    /**
+     * WeatherContract.normalizeDate.
+     */
+    static long normalize(long date) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(date);
+        return startOfDay(calendar);
+    }
+
+    private static long startOfDay(Calendar calendar) {
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+
+    /**
+     * The provider's DayNormalizer.
+     */
+    static class DayNormalizer {
+        private final Calendar mCalendar = Calendar.getInstance();
+        private long mDayStart = Long.MAX_VALUE;
+        private long mNextDayStart = Long.MIN_VALUE;
+
+        long normalize(long date) {
+            if (date >= mDayStart && date < mNextDayStart) {
+                return mDayStart;
+            }
+            mCalendar.setTimeInMillis(date);
+            mDayStart = startOfDay(mCalendar);
+            mCalendar.add(Calendar.DAY_OF_MONTH, 1);
+            mNextDayStart = mCalendar.getTimeInMillis();
+            return mDayStart;
+        }
+    }
+}
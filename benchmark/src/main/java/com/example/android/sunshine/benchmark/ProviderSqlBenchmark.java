@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmark;
+
+import com.example.android.sunshine.app.data.WeatherSql;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The statements a sync and the forecast list run, against an in-memory SQLite database with
+ * the app's schema.  The schema and statements are the app's own, from WeatherSql; only the
+ * prune and list queries are put together here the way SQLiteDatabase and SQLiteQueryBuilder
+ * put them together around its selections.  In memory, so the results measure SQLite and the
+ * statements rather than the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProviderSqlBenchmark {
+
+    private static final int DAYS = 16;
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final long FIRST_DAY = 1463875200000L;
+    private static final String LOCATION_SETTING = "94043";
+
+    // WeatherDbHelper
+    private static final String[] SCHEMA = {
+            WeatherSql.CREATE_LOCATION_TABLE,
+            WeatherSql.CREATE_WEATHER_TABLE,
+            WeatherSql.CREATE_WEATHER_LOCATION_DATE_INDEX
+    };
+
+    // The prune delete SunshineSyncAdapter runs after its batch, as SQLiteDatabase.delete
+    // builds it
+    private static final String SQL_PRUNE = "DELETE FROM weather WHERE " +
+            WeatherSql.PRUNE_SELECTION;
+
+    // WeatherProvider, the forecast list's query as the widgets and ForecastSnapshot make it
+    // and SQLiteQueryBuilder builds it.  Without location columns it reads the weather table
+    // alone, by the cached location id.
+    private static final String SQL_FORECAST_LIST = "SELECT weather._id, date, short_desc, max, " +
+            "min, weather_id FROM weather WHERE (" +
+            WeatherSql.LOCATION_ID_WITH_START_DATE_SELECTION + ") ORDER BY date ASC";
+
+    private Connection mDb;
+    private PreparedStatement mFindIdenticalRow;
+    private PreparedStatement mFindRow;
+    private PreparedStatement mInsert;
+    private PreparedStatement mUpdate;
+    private PreparedStatement mPrune;
+    private PreparedStatement mForecastList;
+    private long mLocationId;
+    private int mGeneration;
+
+    @Setup
+    public void createDatabase() throws SQLException {
+        mDb = DriverManager.getConnection("jdbc:sqlite::memory:");
+        Statement statement = mDb.createStatement();
+        for (String sql : SCHEMA) {
+            statement.executeUpdate(sql);
+        }
+        statement.executeUpdate("INSERT INTO location (location_setting, city_name, coord_lat, " +
+                "coord_long) VALUES ('" + LOCATION_SETTING + "', 'Mountain View', 37.38, -122.08)");
+        ResultSet ids = statement.executeQuery("SELECT last_insert_rowid()");
+        ids.next();
+        mLocationId = ids.getLong(1);
+        statement.close();
+
+        mFindIdenticalRow = mDb.prepareStatement(WeatherSql.FIND_IDENTICAL_ROW);
+        mFindRow = mDb.prepareStatement(WeatherSql.FIND_ROW);
+        mInsert = mDb.prepareStatement(WeatherSql.INSERT);
+        mUpdate = mDb.prepareStatement(WeatherSql.UPDATE);
+        mPrune = mDb.prepareStatement(SQL_PRUNE);
+        mForecastList = mDb.prepareStatement(SQL_FORECAST_LIST);
+        mDb.setAutoCommit(false);
+        writeForecast(0);
+    }
+
+    @TearDown
+    public void closeDatabase() throws SQLException {
+        mDb.close();
+    }
+
+    /**
+     * A sync that got the same forecast back, which is most of them.
+     */
+    @Benchmark
+    public int writeUnchangedForecast() throws SQLException {
+        return writeForecast(0);
+    }
+
+    /**
+     * A sync where every day changed.
+     */
+    @Benchmark
+    public int writeChangedForecast() throws SQLException {
+        return writeForecast(++mGeneration);
+    }
+
+    @Benchmark
+    public int queryForecastList() throws SQLException {
+        mForecastList.setLong(1, mLocationId);
+        mForecastList.setLong(2, FIRST_DAY);
+        ResultSet rows = mForecastList.executeQuery();
+        int count = 0;
+        while (rows.next()) {
+            rows.getLong(1);
+            rows.getLong(2);
+            rows.getString(3);
+            rows.getDouble(4);
+            rows.getDouble(5);
+            rows.getInt(6);
+            count++;
+        }
+        rows.close();
+        return count;
+    }
+
+    /**
+     * Writes every day in one transaction the way WeatherBulkWriter does, then prunes in
+     * another.
+     * Returns the number of rows written.
+     */
+    private int writeForecast(int generation) throws SQLException {
+        int changed = 0;
+        for (int day = 0; day < DAYS; day++) {
+            long date = FIRST_DAY + day * DAY_IN_MILLIS;
+            double max = 20 + day + generation % 10;
+            double min = 10 + day;
+            bindRow(mFindIdenticalRow, 1, date, max, min);
+            if (queryLong(mFindIdenticalRow) != -1) {
+                continue;
+            }
+            mFindRow.setLong(1, mLocationId);
+            mFindRow.setLong(2, date);
+            long rowId = queryLong(mFindRow);
+            if (rowId == -1) {
+                bindRow(mInsert, 1, date, max, min);
+                mInsert.executeUpdate();
+            } else {
+                mUpdate.setInt(1, 800);
+                mUpdate.setString(2, "Clear");
+                mUpdate.setDouble(3, min);
+                mUpdate.setDouble(4, max);
+                mUpdate.setDouble(5, 60);
+                mUpdate.setDouble(6, 1012.5);
+                mUpdate.setDouble(7, 5.5);
+                mUpdate.setDouble(8, 247.5);
+                mUpdate.setLong(9, rowId);
+                mUpdate.executeUpdate();
+            }
+            changed++;
+        }
+        mDb.commit();
+        mPrune.setLong(1, FIRST_DAY - DAY_IN_MILLIS);
+        mPrune.executeUpdate();
+        mDb.commit();
+        return changed;
+    }
+
+    private void bindRow(PreparedStatement statement, int first, long date, double max,
+                         double min) throws SQLException {
+        statement.setLong(first, mLocationId);
+        statement.setLong(first + 1, date);
+        statement.setInt(first + 2, 800);
+        statement.setString(first + 3, "Clear");
+        statement.setDouble(first + 4, min);
+        statement.setDouble(first + 5, max);
+        statement.setDouble(first + 6, 60);
+        statement.setDouble(first + 7, 1012.5);
+        statement.setDouble(first + 8, 5.5);
+        statement.setDouble(first + 9, 247.5);
+    }
+
+    private static long queryLong(PreparedStatement statement) throws SQLException {
+        ResultSet result = statement.executeQuery();
+        try {
+            result.next();
+            return result.getLong(1);
+        } finally {
+            result.close();
+        }
+    }
+}
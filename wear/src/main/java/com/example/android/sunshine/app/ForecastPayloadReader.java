@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Reads the forecast payload the phone's WearForecastPayload writes; the format is described
+ * there.
+ */
+final class ForecastPayloadReader {
+    static final int FORMAT_VERSION = 1;
+    static final int TYPE_FULL = 0;
+    static final int TYPE_DELTA = 1;
+    static final int FLAG_METRIC = 1;
+
+    private ForecastPayloadReader() {
+    }
+
+    /**
+     * Reads a payload.  A delta is applied to the base forecast; if the base isn't the one the
+     * delta was worked out against, or leaves days missing, null is returned and the watch has
+     * to ask the phone for the whole forecast.
+     */
+    static WatchForecast read(byte[] payload, WatchForecast base) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int format = in.readUnsignedByte();
+        if (format != FORMAT_VERSION) {
+            throw new IOException("Unknown forecast payload format " + format);
+        }
+        int type = in.readUnsignedByte();
+        boolean metric = (in.readUnsignedByte() & FLAG_METRIC) != 0;
+        int version = in.readInt();
+        if (type == TYPE_DELTA) {
+            int baseVersion = in.readInt();
+            if (base == null || base.version != baseVersion) {
+                return null;
+            }
+        } else if (type != TYPE_FULL) {
+            throw new IOException("Unknown forecast payload type " + type);
+        }
+
+        int firstDay = in.readInt();
+        WatchForecast.Day[] days = new WatchForecast.Day[in.readUnsignedByte()];
+        if (type == TYPE_DELTA) {
+            // Days the delta leaves out are unchanged
+            for (int i = 0; i < days.length; i++) {
+                days[i] = base.getDayOn(firstDay + i);
+            }
+        }
+        String[] descriptions = new String[in.readUnsignedByte()];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = in.readUTF();
+        }
+        int count = in.readUnsignedByte();
+        for (int i = 0; i < count; i++) {
+            int offset = in.readUnsignedByte();
+            if (offset >= days.length) {
+                throw new IOException("Day " + offset + " is outside the forecast");
+            }
+            int weatherId = in.readShort();
+            String description = descriptions[in.readUnsignedByte()];
+            double maxTemp = in.readShort() / 10.0;
+            double minTemp = in.readShort() / 10.0;
+            days[offset] = new WatchForecast.Day(firstDay + offset, weatherId, description,
+                    maxTemp, minTemp);
+        }
+        for (WatchForecast.Day day : days) {
+            if (day == null) {
+                return null;
+            }
+        }
+        return new WatchForecast(version, metric, days);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asks the phone for the forecast.  The request carries the payload version the watch already
+ * has, and the phone only answers if it holds a different one.  Only one request is ever
+ * pending; while the phone can't be reached, each retry waits twice as long as the last.
+ * Everything here runs on the main thread.
+ */
+class ForecastRequester {
+    private static final String TAG = "ForecastRequester";
+
+    static final String GET_LATEST_DATA = "/latest_data";
+
+    // Requests that reached the phone are never repeated sooner than this
+    private static final long MIN_INTERVAL_MS = TimeUnit.SECONDS.toMillis(2);
+    private static final long INITIAL_BACKOFF_MS = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(30);
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final Handler mHandler = new Handler();
+    private final Runnable mSendRequest = new Runnable() {
+        @Override
+        public void run() {
+            mScheduled = false;
+            send();
+        }
+    };
+
+    private int mVersion;
+    private boolean mInFlight;
+    private boolean mScheduled;
+    // Set for good once the data layer goes away; callbacks still on their way then do nothing
+    private boolean mCancelled;
+    private long mNextRequestTime;
+    private long mBackoffMs = INITIAL_BACKOFF_MS;
+
+    ForecastRequester(GoogleApiClient googleApiClient) {
+        mGoogleApiClient = googleApiClient;
+    }
+
+    /**
+     * Asks for anything newer than the given payload version, 0 if the watch has none.  Does
+     * nothing more if a request is already pending; that one is sent with this version.
+     */
+    void request(int version) {
+        mVersion = version;
+        if (mInFlight || mScheduled || mCancelled) {
+            return;
+        }
+        long delay = mNextRequestTime - SystemClock.elapsedRealtime();
+        if (delay > 0) {
+            schedule(delay);
+        } else {
+            send();
+        }
+    }
+
+    /**
+     * Drops a scheduled retry, for when the data layer goes away.  A request already in flight
+     * finishes without scheduling another, and later requests are ignored.
+     */
+    void cancel() {
+        mCancelled = true;
+        mHandler.removeCallbacks(mSendRequest);
+        mScheduled = false;
+    }
+
+    private void schedule(long delay) {
+        mScheduled = true;
+        mHandler.postDelayed(mSendRequest, delay);
+    }
+
+    private void send() {
+        if (!mGoogleApiClient.isConnected()) {
+            // Asked for again once it connects
+            return;
+        }
+        mInFlight = true;
+        final byte[] request = ByteBuffer.allocate(4).putInt(mVersion).array();
+        Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).setResultCallback(
+                new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                    @Override
+                    public void onResult(NodeApi.GetConnectedNodesResult result) {
+                        List<Node> nodes = result.getNodes();
+                        if (nodes.isEmpty()) {
+                            finish(false);
+                            return;
+                        }
+                        final int[] pending = {nodes.size()};
+                        final boolean[] delivered = {false};
+                        for (Node node : nodes) {
+                            Log.d(TAG, "Sent update data request for anything after version "
+                                    + mVersion);
+                            Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(),
+                                    GET_LATEST_DATA, request).setResultCallback(
+                                    new ResultCallback<MessageApi.SendMessageResult>() {
+                                        @Override
+                                        public void onResult(MessageApi.SendMessageResult sendMessageResult) {
+                                            if (sendMessageResult.getStatus().isSuccess()) {
+                                                delivered[0] = true;
+                                            } else {
+                                                Log.e(TAG, "Failed to send message with status code: "
+                                                        + sendMessageResult.getStatus().getStatusCode());
+                                            }
+                                            if (--pending[0] == 0) {
+                                                finish(delivered[0]);
+                                            }
+                                        }
+                                    }
+                            );
+                        }
+                    }
+                });
+    }
+
+    private void finish(boolean delivered) {
+        mInFlight = false;
+        if (mCancelled) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (delivered) {
+            mBackoffMs = INITIAL_BACKOFF_MS;
+            mNextRequestTime = now + MIN_INTERVAL_MS;
+            return;
+        }
+        Log.d(TAG, "Phone unreachable, asking again in " + mBackoffMs + "ms");
+        mNextRequestTime = now + mBackoffMs;
+        schedule(mBackoffMs);
+        mBackoffMs = Math.min(mBackoffMs * 2, MAX_BACKOFF_MS);
+    }
+}
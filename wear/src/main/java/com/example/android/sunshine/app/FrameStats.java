@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts how often the watch face wakes up and draws, and how long its frames take, and logs
+ * the totals once an hour.  Used to compare wakeups per hour with and without seconds on the
+ * watch itself: a change of mode logs what was counted so far and starts over, so each total
+ * covers one mode.
+ */
+class FrameStats {
+    private static final long WINDOW_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final String mTag;
+    private String mMode;
+    private long mWindowStart = -1;
+    private int mWakeups;
+    private int mInteractiveFrames;
+    private int mAmbientFrames;
+    private long mDrawNanos;
+    private long mMaxDrawNanos;
+
+    FrameStats(String tag) {
+        mTag = tag;
+    }
+
+    /**
+     * Records a wakeup: a timer message or a time tick.
+     */
+    void onWakeup() {
+        mWakeups++;
+    }
+
+    /**
+     * Records a drawn frame, and logs and starts over once the hour is up or the mode changes.
+     */
+    void onFrame(boolean ambient, long drawNanos, long nowMillis, String mode) {
+        if (mWindowStart != -1 && !mode.equals(mMode)) {
+            log(nowMillis);
+        }
+        if (mWindowStart == -1) {
+            mWindowStart = nowMillis;
+        }
+        mMode = mode;
+        if (ambient) {
+            mAmbientFrames++;
+        } else {
+            mInteractiveFrames++;
+        }
+        mDrawNanos += drawNanos;
+        mMaxDrawNanos = Math.max(mMaxDrawNanos, drawNanos);
+
+        if (nowMillis - mWindowStart >= WINDOW_MS) {
+            log(nowMillis);
+        }
+    }
+
+    /**
+     * Logs the totals so far and starts over.
+     */
+    private void log(long nowMillis) {
+        long elapsed = nowMillis - mWindowStart;
+        int frames = mInteractiveFrames + mAmbientFrames;
+        if (frames > 0) {
+            Log.d(mTag, "Frames over " + TimeUnit.MILLISECONDS.toMinutes(elapsed)
+                    + " min (" + mMode + "): " + mWakeups + " wakeups, "
+                    + mInteractiveFrames + " interactive and " + mAmbientFrames
+                    + " ambient frames, " + (mDrawNanos / frames / 1000) + "us average and "
+                    + (mMaxDrawNanos / 1000) + "us worst draw");
+        }
+        mWindowStart = -1;
+        mWakeups = 0;
+        mInteractiveFrames = 0;
+        mAmbientFrames = 0;
+        mDrawNanos = 0;
+        mMaxDrawNanos = 0;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Every weather icon, decoded and scaled once into a single bitmap with one square cell per
+ * kind of weather.  Drawing an icon copies its cell; nothing is decoded while the face draws,
+ * and the memory used is fixed by the cell size rather than by how many weather ids were seen.
+ */
+class IconAtlas {
+    static final int NO_ICON = -1;
+
+    // The kinds of weather there are icons for, in atlas order
+    private static final int STORM = 0;
+    private static final int LIGHT_RAIN = 1;
+    private static final int RAIN = 2;
+    private static final int SNOW = 3;
+    private static final int FOG = 4;
+    private static final int CLEAR = 5;
+    private static final int LIGHT_CLOUDS = 6;
+    private static final int CLOUDY = 7;
+
+    private static final int[] ICONS = {
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
+    private final Bitmap mAtlas;
+    private final int mCellSize;
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    IconAtlas(Resources resources, int cellSize) {
+        mCellSize = cellSize;
+        mAtlas = Bitmap.createBitmap(cellSize * ICONS.length, cellSize, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mAtlas);
+        for (int i = 0; i < ICONS.length; i++) {
+            Bitmap icon = BitmapFactory.decodeResource(resources, ICONS[i]);
+            // Fit the icon in its cell, keeping its shape
+            float scale = Math.min((float) cellSize / icon.getWidth(),
+                    (float) cellSize / icon.getHeight());
+            int width = Math.round(icon.getWidth() * scale);
+            int height = Math.round(icon.getHeight() * scale);
+            int left = i * cellSize + (cellSize - width) / 2;
+            int top = (cellSize - height) / 2;
+            mDst.set(left, top, left + width, top + height);
+            canvas.drawBitmap(icon, null, mDst, mPaint);
+            icon.recycle();
+        }
+    }
+
+    int getCellSize() {
+        return mCellSize;
+    }
+
+    /**
+     * Draws the icon for a kind of weather with its top left corner at the given point.
+     */
+    void draw(Canvas canvas, int bucket, float left, float top) {
+        if (bucket == NO_ICON) {
+            return;
+        }
+        mSrc.set(bucket * mCellSize, 0, (bucket + 1) * mCellSize, mCellSize);
+        int x = Math.round(left);
+        int y = Math.round(top);
+        mDst.set(x, y, x + mCellSize, y + mCellSize);
+        canvas.drawBitmap(mAtlas, mSrc, mDst, null);
+    }
+
+    void recycle() {
+        mAtlas.recycle();
+    }
+
+    /**
+     * Returns the kind of weather a weather id shows as, or {@link #NO_ICON}.
+     */
+    static int getBucket(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return STORM;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return LIGHT_RAIN;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return RAIN;
+        } else if (weatherId == 511) {
+            return SNOW;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return RAIN;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return SNOW;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return FOG;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return STORM;
+        } else if (weatherId == 800) {
+            return CLEAR;
+        } else if (weatherId == 801) {
+            return LIGHT_CLOUDS;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return CLOUDY;
+        }
+        return NO_ICON;
+    }
+}
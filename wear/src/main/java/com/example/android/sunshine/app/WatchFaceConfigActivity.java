@@ -0,0 +1,32 @@
+package com.example.android.sunshine.app;
+
+import android.app.Activity;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.widget.CompoundButton;
+import android.widget.Switch;
+
+/**
+ * The watch face's settings, opened from the watch face picker.  Saves them where the running
+ * face picks them up straight away.
+ */
+public class WatchFaceConfigActivity extends Activity {
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_config);
+
+        final SharedPreferences prefs =
+                getSharedPreferences(WearWatchFace.PREFS_NAME, MODE_PRIVATE);
+        Switch showSeconds = (Switch) findViewById(R.id.show_seconds);
+        showSeconds.setChecked(prefs.getBoolean(WearWatchFace.KEY_SHOW_SECONDS,
+                getResources().getBoolean(R.bool.show_seconds)));
+        showSeconds.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton button, boolean isChecked) {
+                prefs.edit().putBoolean(WearWatchFace.KEY_SHOW_SECONDS, isChecked).apply();
+            }
+        });
+    }
+}
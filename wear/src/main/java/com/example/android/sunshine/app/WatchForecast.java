@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+/**
+ * The forecast the phone last sent, several days of it.
+ */
+class WatchForecast {
+
+    /**
+     * One day of the forecast.
+     */
+    static final class Day {
+        // Days since the epoch, local time
+        final int epochDay;
+        final int weatherId;
+        final String description;
+        // In Celsius
+        final double maxTemp;
+        final double minTemp;
+
+        Day(int epochDay, int weatherId, String description, double maxTemp, double minTemp) {
+            this.epochDay = epochDay;
+            this.weatherId = weatherId;
+            this.description = description;
+            this.maxTemp = maxTemp;
+            this.minTemp = minTemp;
+        }
+    }
+
+    // The payload version this forecast came with
+    final int version;
+    final boolean isMetric;
+    // Consecutive, in date order
+    private final Day[] mDays;
+
+    WatchForecast(int version, boolean isMetric, Day[] days) {
+        this.version = version;
+        this.isMetric = isMetric;
+        mDays = days;
+    }
+
+    int getDayCount() {
+        return mDays.length;
+    }
+
+    Day getDay(int position) {
+        return mDays[position];
+    }
+
+    /**
+     * Returns the forecast for a day, or null if there is none.
+     */
+    Day getDayOn(int epochDay) {
+        if (mDays.length == 0) {
+            return null;
+        }
+        int position = epochDay - mDays[0].epochDay;
+        return position >= 0 && position < mDays.length ? mDays[position] : null;
+    }
+}
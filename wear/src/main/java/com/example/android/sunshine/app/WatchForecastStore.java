@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps the last forecast on the watch, so that a new engine can draw it on its first frame
+ * instead of waiting for the data layer.  The forecast is one small blob in SharedPreferences.
+ */
+class WatchForecastStore {
+    private static final String TAG = "WatchForecastStore";
+
+    private static final String PREFS_NAME = "watch_forecast";
+    private static final String FORECAST_KEY = "forecast";
+    private static final int STORE_VERSION = 1;
+
+    private final SharedPreferences mPrefs;
+    private long mSavedTime;
+
+    WatchForecastStore(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the stored forecast, or null if there is none.  Reads from disk, but the blob is a
+     * few hundred bytes.
+     */
+    WatchForecast load() {
+        String blob = mPrefs.getString(FORECAST_KEY, null);
+        if (blob == null) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(Base64.decode(blob, Base64.DEFAULT)));
+            if (in.readUnsignedByte() != STORE_VERSION) {
+                return null;
+            }
+            mSavedTime = in.readLong();
+            int version = in.readInt();
+            boolean isMetric = in.readBoolean();
+            WatchForecast.Day[] days = new WatchForecast.Day[in.readUnsignedByte()];
+            for (int i = 0; i < days.length; i++) {
+                days[i] = new WatchForecast.Day(in.readInt(), in.readInt(), in.readUTF(),
+                        in.readDouble(), in.readDouble());
+            }
+            return new WatchForecast(version, isMetric, days);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Discarding the stored forecast", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns when the forecast {@link #load} returned was stored.
+     */
+    long getSavedTime() {
+        return mSavedTime;
+    }
+
+    void save(WatchForecast forecast, long now) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(STORE_VERSION);
+            out.writeLong(now);
+            out.writeInt(forecast.version);
+            out.writeBoolean(forecast.isMetric);
+            out.writeByte(forecast.getDayCount());
+            for (int i = 0; i < forecast.getDayCount(); i++) {
+                WatchForecast.Day day = forecast.getDay(i);
+                out.writeInt(day.epochDay);
+                out.writeInt(day.weatherId);
+                out.writeUTF(day.description);
+                out.writeDouble(day.maxTemp);
+                out.writeDouble(day.minTemp);
+            }
+            out.close();
+        } catch (IOException e) {
+            // Can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+        mSavedTime = now;
+        mPrefs.edit()
+                .putString(FORECAST_KEY, Base64.encodeToString(bytes.toByteArray(), Base64.DEFAULT))
+                .apply();
+    }
+}
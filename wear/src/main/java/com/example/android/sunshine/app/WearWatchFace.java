@@ -20,16 +20,15 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -37,15 +36,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.Layout;
-import android.text.Spannable;
-import android.text.SpannableString;
-import android.text.StaticLayout;
 import android.text.TextPaint;
-import android.text.style.DynamicDrawableSpan;
-import android.text.style.ForegroundColorSpan;
-import android.text.style.ImageSpan;
-import android.text.style.StyleSpan;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
@@ -58,49 +49,50 @@ import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.DataItemBuffer;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
-import com.google.android.gms.wearable.MessageApi;
-import com.google.android.gms.wearable.Node;
-import com.google.android.gms.wearable.NodeApi;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.concurrent.TimeUnit;
 
 
 /**
- * Digital watch face with seconds. In ambient mode, the seconds aren't displayed. On devices with
- * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
+ * Digital watch face with optional seconds, switched on and off in its settings. In ambient
+ * mode, the seconds aren't displayed. On devices with low-bit ambient mode, the text is drawn
+ * without anti-aliasing in ambient mode.
  */
 public class WearWatchFace extends CanvasWatchFaceService {
-    public static final String WEATHER_ID = "weather_id";
-    public static final String MAX_TEMPERATURE = "max_temp";
-    public static final String MINIMUM_TEMPERATURE = "min_temp";
-    public static final String DESCRIPTION = "description";
-    private static final String GET_LATEST_DATA = "/latest_data";
-    private static final String IS_METRIC = "is_metric";
+    // Holds the forecast, as a payload ForecastPayloadReader reads
+    private static final String FORECAST_PATH = "/forecast";
 
 
     private static final Typeface NORMAL_TYPEFACE =
             Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
 
 
-    /**
-     * Update rate in milliseconds for interactive mode. We update once a second since seconds are
-     * displayed in interactive mode.
-     */
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final long SECOND_IN_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    // The watch face settings, written by WatchFaceConfigActivity
+    static final String PREFS_NAME = "watch_face";
+    static final String KEY_SHOW_SECONDS = "show_seconds";
 
     /**
      * Handler message id for updating the time periodically in interactive mode.
      */
     private static final int MSG_UPDATE_TIME = 0;
+
+    private static final long DAY_IN_MILLIS = TimeUnit.DAYS.toMillis(1);
+    // No day shown yet
+    private static final int NO_DAY = Integer.MIN_VALUE;
+    // No ambient time measured yet
+    private static final int NO_MINUTE = -1;
+    // No interactive time measured yet
+    private static final int NO_TIME = -1;
+    // With burn-in protection the ambient time moves one step a minute around a square this
+    // many steps wide
+    private static final int BURN_IN_STEPS = 3;
     private static final String TAG = "SUNSHINE_WATCH_FACE";
     private GoogleApiClient mGoogleApiClient;
 
@@ -122,18 +114,6 @@ public class WearWatchFace extends CanvasWatchFaceService {
         return new Engine();
     }
 
-    private Collection<String> getNodes() {
-        HashSet<String> results = new HashSet<>();
-        NodeApi.GetConnectedNodesResult nodes =
-                Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await();
-
-        for (Node node : nodes.getNodes()) {
-            results.add(node.getId());
-        }
-
-        return results;
-    }
-
     private String formatTemperature(boolean isMetric, double temperature) {
         // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
         // the values here.
@@ -146,6 +126,11 @@ public class WearWatchFace extends CanvasWatchFaceService {
         return String.format(getString(R.string.format_temperature), temperature);
     }
 
+    private static void putTwoDigits(char[] chars, int offset, int value) {
+        chars[offset] = (char) ('0' + value / 10);
+        chars[offset + 1] = (char) ('0' + value % 10);
+    }
+
     private static class EngineHandler extends Handler {
         private final WeakReference<WearWatchFace.Engine> mWeakReference;
 
@@ -166,13 +151,20 @@ public class WearWatchFace extends CanvasWatchFaceService {
         }
     }
 
-    private class Engine extends CanvasWatchFaceService.Engine implements DataApi.DataListener {
+    private class Engine extends CanvasWatchFaceService.Engine implements DataApi.DataListener,
+            SharedPreferences.OnSharedPreferenceChangeListener {
         final Handler mUpdateTimeHandler = new EngineHandler(this);
+        final FrameStats mFrameStats = new FrameStats(TAG);
+        SharedPreferences mPrefs;
+        boolean mShowSeconds;
         boolean mRegisteredTimeZoneReceiver = false;
         Paint mBackgroundPaint;
         TextPaint mTimePaint;
+        TextPaint mHoursPaint;
         TextPaint mDatePaint;
         TextPaint mTemperaturePaint;
+        TextPaint mHighPaint;
+        TextPaint mLowPaint;
         int iconSize;
 
 
@@ -180,27 +172,83 @@ public class WearWatchFace extends CanvasWatchFaceService {
         double maxTemp;
         int weatherId;
         String weatherDescription;
+        // Every day the phone sent
+        WatchForecast mForecast;
+        // The day the weather shown is for
+        int mShownEpochDay = NO_DAY;
+        WatchForecastStore mForecastStore;
         boolean dataLoaded;
         boolean isMetric;
-        long requestTime;
+        ForecastRequester mRequester;
 
-        HashMap<Integer, Bitmap> iconsMap = new HashMap<>();
         boolean mAmbient;
         Calendar mTime;
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 mTime = GregorianCalendar.getInstance();
+                mDateText = null;
+                // The day may be a different one in the new time zone
+                mShownEpochDay = NO_DAY;
+                invalidate();
             }
         };
-        float mXOffset;
         float mYOffset;
 
+        // "HH:MM:SS", rewritten in place every frame
+        final char[] mTimeChars = {'0', '0', ':', '0', '0', ':', '0', '0'};
+        String mDateText;
+        int mDateKey;
+        boolean mWeatherMeasured;
+        int mIconBucket;
+        String mHighText;
+        String mLowText;
+        float mHighWidth;
+        float mLowWidth;
+        IconAtlas mIconAtlas;
+        // The time shown, in seconds or minutes of the day, the widths below were measured for
+        int mMeasuredTime = NO_TIME;
+        float mHoursWidth;
+        float mTimeRestWidth;
+
+        // Measured once in onCreate so that drawing doesn't look anything up
+        float mTimeBaseline;
+        float mTimeLineHeight;
+        float mDateOffset;
+        float mRuleHalfWidth;
+        float mRuleOffset;
+        float mWeatherOffset;
+        float mWaitingOffset;
+        float mTemperatureBaseline;
+        float mTemperatureCenter;
+        float mTemperatureLineHeight;
+        float mIconGap;
+        float mTemperatureGap;
+
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
          */
         boolean mLowBitAmbient;
+
+        /**
+         * Whether the display needs protecting from burn-in. When true, the ambient time is
+         * drawn in outline.
+         */
+        boolean mBurnInProtection;
+
+        // The ambient face minus the time, redrawn only when the date, weather, surface size or
+        // display properties change
+        Bitmap mAmbientFrame;
+        Canvas mAmbientCanvas;
+        TextPaint mAmbientTimePaint;
+        TextPaint mAmbientDatePaint;
+        // The minute of the day the ambient time below was measured and placed for
+        int mAmbientMinute = NO_MINUTE;
+        float mAmbientTimeWidth;
+        float mAmbientShiftX;
+        float mAmbientShiftY;
+        float mBurnInStep;
         @Override
         public void onCreate(SurfaceHolder holder) {
             super.onCreate(holder);
@@ -228,7 +276,8 @@ public class WearWatchFace extends CanvasWatchFaceService {
             //createTextPaint(resources.getColor(R.color.secondary_color));
             mDatePaint.setTextSize(resources.getDimension(R.dimen.date_text_size));
             mDatePaint.setTextAlign(Paint.Align.CENTER);
-            mDatePaint.setStrokeWidth(getResources().getDisplayMetrics().density*1);
+            float density = resources.getDisplayMetrics().density;
+            mDatePaint.setStrokeWidth(density*1);
 
 
             mTemperaturePaint =new TextPaint();
@@ -238,9 +287,56 @@ public class WearWatchFace extends CanvasWatchFaceService {
             mTemperaturePaint.setTextAlign(Paint.Align.CENTER);
             mTime = GregorianCalendar.getInstance();
 
+            mHoursPaint = new TextPaint(mTimePaint);
+            mHoursPaint.setTypeface(Typeface.DEFAULT_BOLD);
+
+            mAmbientTimePaint = new TextPaint(mTimePaint);
+            mAmbientTimePaint.setStrokeWidth(density);
+            mBurnInStep = 2 * density;
+            mAmbientDatePaint = new TextPaint(mDatePaint);
+            updateAmbientPaints();
+
+            Paint.FontMetrics timeMetrics = mTimePaint.getFontMetrics();
+            mTimeBaseline = -timeMetrics.ascent;
+            mTimeLineHeight = timeMetrics.descent - timeMetrics.ascent;
+            mDateOffset = mDatePaint.getFontMetrics().bottom + 10 * density;
+            mRuleHalfWidth = 30 * density;
+            mRuleOffset = 15 * density;
+            mWeatherOffset = 30 * density;
+            mWaitingOffset = 10 * density;
+
+            // The weather line is drawn left to right: icon, high, low
+            mLowPaint = new TextPaint(mTemperaturePaint);
+            mLowPaint.setTextAlign(Paint.Align.LEFT);
+            mHighPaint = new TextPaint(mLowPaint);
+            mHighPaint.setColor(Color.WHITE);
+            mHighPaint.setTypeface(Typeface.DEFAULT_BOLD);
+            Paint.FontMetrics temperatureMetrics = mLowPaint.getFontMetrics();
+            mTemperatureBaseline = -temperatureMetrics.ascent;
+            mTemperatureCenter = -(temperatureMetrics.ascent + temperatureMetrics.descent) / 2;
+            mTemperatureLineHeight = temperatureMetrics.descent - temperatureMetrics.ascent;
+            mIconGap = mLowPaint.measureText("    ");
+            mTemperatureGap = mLowPaint.measureText(" ");
+
             iconSize = resources.getDimensionPixelSize(R.dimen.icon_size);
+            mPrefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+            mShowSeconds = mPrefs.getBoolean(KEY_SHOW_SECONDS,
+                    resources.getBoolean(R.bool.show_seconds));
+            mPrefs.registerOnSharedPreferenceChangeListener(this);
+
+            // Draw the last forecast we had from the first frame, before the data layer connects
+            mForecastStore = new WatchForecastStore(WearWatchFace.this);
+            WatchForecast forecast = mForecastStore.load();
+            if (forecast != null && forecast.getDayCount() > 0) {
+                Log.d(TAG, "Loaded forecast version " + forecast.version + " stored at "
+                        + mForecastStore.getSavedTime());
+                showForecast(forecast);
+            }
 
             initDataLayerApi();
+            // Stays connected for as long as the engine lives, so that becoming visible doesn't
+            // cost a reconnect and forecasts keep arriving while the face isn't showing
+            mGoogleApiClient.connect();
         }
         private void initDataLayerApi() {
 
@@ -267,12 +363,13 @@ public class WearWatchFace extends CanvasWatchFaceService {
                         }
                     })
                     .build();
+            mRequester = new ForecastRequester(mGoogleApiClient);
         }
 
         private void initWeatherStats() {
             Uri uri = new Uri.Builder()
                     .scheme("wear")
-                    .path("/weather")
+                    .path(FORECAST_PATH)
                     .build();
             Wearable.DataApi.getDataItems(mGoogleApiClient, uri)
                     .setResultCallback(
@@ -295,95 +392,232 @@ public class WearWatchFace extends CanvasWatchFaceService {
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mPrefs.unregisterOnSharedPreferenceChangeListener(this);
+            mRequester.cancel();
+            if (mGoogleApiClient.isConnected()) {
+                Wearable.DataApi.removeListener(mGoogleApiClient, this);
+            }
+            mGoogleApiClient.disconnect();
+            discardAmbientFrame();
+            if (mIconAtlas != null) {
+                mIconAtlas.recycle();
+                mIconAtlas = null;
+            }
             super.onDestroy();
         }
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+            long drawStart = System.nanoTime();
+
+            // Nothing in here allocates: the time is written into mTimeChars, and the date and
+            // weather lines are only rebuilt when they change.
+            long now = System.currentTimeMillis();
+            mTime.setTimeInMillis(now);
+            updateTimeChars();
+            int today = getLocalEpochDay();
+            if (today != mShownEpochDay) {
+                showDay(today);
             }
-
+            float centerX = bounds.width() / 2f;
 
             if (!mAmbient) {
-                float density=getResources().getDisplayMetrics().density;
+                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
                 float yOffset = mYOffset;
-                mTime.setTimeInMillis(System.currentTimeMillis());
+                updateDateText();
 
-                String date = String.format("%ta,%tb %te %tY", mTime, mTime, mTime, mTime).toUpperCase();
+                yOffset += drawTime(canvas, centerX) + mDateOffset;
 
-                yOffset += drawTime(canvas)+mDatePaint.getFontMetrics().bottom+10*density;
-
-
-                canvas.drawText(date, canvas.getWidth()/2, yOffset, mDatePaint);
-                float centerX=canvas.getWidth()/2;
-                canvas.drawLine(centerX-30*density,yOffset+15*density,
-                        centerX+30*density,yOffset+15*density,mDatePaint);
-                yOffset = yOffset + density * 30;
+                canvas.drawText(mDateText, centerX, yOffset, mDatePaint);
+                canvas.drawLine(centerX - mRuleHalfWidth, yOffset + mRuleOffset,
+                        centerX + mRuleHalfWidth, yOffset + mRuleOffset, mDatePaint);
+                yOffset = yOffset + mWeatherOffset;
 
                 if (dataLoaded) {
-                    drawWeather(canvas,yOffset);
+                    drawWeather(canvas, centerX, yOffset);
                 } else {
-                    yOffset = yOffset + density * 10;
-                    canvas.drawText("waiting for data", canvas.getWidth()/2, yOffset, mTemperaturePaint);
-                    sendDataRequest();
+                    yOffset = yOffset + mWaitingOffset;
+                    canvas.drawText("waiting for data", centerX, yOffset, mTemperaturePaint);
                 }
 
 
             } else {
 
-                String time = String.format("%tR", mTime);
-                Rect textBounds = new Rect();
-                mTimePaint.getTextBounds(time, 0, time.length(), textBounds);
-                mXOffset = (canvas.getWidth() - textBounds.width()) / 2;
-                float yOffset = (canvas.getHeight()) / 2 + mTimePaint.descent();
-                canvas.drawText(time, mXOffset, yOffset, mTimePaint);
+                if (updateDateText() || mAmbientFrame == null
+                        || mAmbientFrame.getWidth() != bounds.width()
+                        || mAmbientFrame.getHeight() != bounds.height()) {
+                    renderAmbientFrame(bounds.width(), bounds.height());
+                }
+                // Everything but the minutes comes from the pre-rendered frame, which is opaque
+                // and covers the whole face, so there is nothing to clear first
+                canvas.drawBitmap(mAmbientFrame, 0, 0, null);
+                int minute = mTime.get(Calendar.HOUR_OF_DAY) * 60 + mTime.get(Calendar.MINUTE);
+                if (minute != mAmbientMinute) {
+                    placeAmbientTime(minute);
+                }
+                canvas.drawText(mTimeChars, 0, 5,
+                        (bounds.width() - mAmbientTimeWidth) / 2 + mAmbientShiftX,
+                        getAmbientTimeBaseline(bounds.height()) + mAmbientShiftY,
+                        mAmbientTimePaint);
 
             }
 
+            mFrameStats.onFrame(mAmbient, System.nanoTime() - drawStart, now,
+                    mShowSeconds ? "seconds shown" : "seconds hidden");
 
         }
-        private int drawTime(Canvas canvas){
-            String time = String.format("%tT", mTime);
-            Spannable wordtoSpan = new SpannableString(time);
 
-            StyleSpan boldSpan = new StyleSpan(Typeface.BOLD);
-            wordtoSpan.setSpan(boldSpan, 0, 2, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        /**
+         * Writes the current time into {@link #mTimeChars} as HH:MM:SS.
+         */
+        private void updateTimeChars() {
+            putTwoDigits(mTimeChars, 0, mTime.get(Calendar.HOUR_OF_DAY));
+            putTwoDigits(mTimeChars, 3, mTime.get(Calendar.MINUTE));
+            putTwoDigits(mTimeChars, 6, mTime.get(Calendar.SECOND));
+        }
 
-            StaticLayout layout = new StaticLayout(wordtoSpan, mTimePaint, canvas.getWidth(), Layout.Alignment.ALIGN_CENTER, 1, 0, false);
-            canvas.save();
-            canvas.translate(0,mYOffset);
-            layout.draw(canvas);
-            canvas.restore();
-            return layout.getHeight();
+        /**
+         * Formats the date line again only when the day has changed since the last frame.
+         * Returns true if it did.
+         */
+        private boolean updateDateText() {
+            int dateKey = mTime.get(Calendar.YEAR) * 1000 + mTime.get(Calendar.DAY_OF_YEAR);
+            if (dateKey != mDateKey || mDateText == null) {
+                mDateKey = dateKey;
+                mDateText = String.format("%ta,%tb %te %tY", mTime, mTime, mTime, mTime)
+                        .toUpperCase();
+                return true;
+            }
+            return false;
         }
 
-        private int drawWeather(Canvas canvas,float yOffset){
-            Spannable wordtoSpan = new SpannableString(String.format("      %s %s",formatTemperature(isMetric, maxTemp), formatTemperature(isMetric, minTemp)));
-            CenteredImageSpan span=new CenteredImageSpan(WearWatchFace.this,getIconResourceForWeatherCondition(weatherId));
+        /**
+         * Measures the ambient time once for each minute and, on displays that need burn-in
+         * protection, moves it a step so that no pixel stays lit for long.
+         */
+        private void placeAmbientTime(int minute) {
+            mAmbientMinute = minute;
+            mAmbientTimeWidth = mAmbientTimePaint.measureText(mTimeChars, 0, 5);
+            if (mBurnInProtection) {
+                int step = minute % (BURN_IN_STEPS * BURN_IN_STEPS);
+                mAmbientShiftX = (step % BURN_IN_STEPS - BURN_IN_STEPS / 2) * mBurnInStep;
+                mAmbientShiftY = (step / BURN_IN_STEPS - BURN_IN_STEPS / 2) * mBurnInStep;
+            } else {
+                mAmbientShiftX = 0;
+                mAmbientShiftY = 0;
+            }
+        }
 
-            wordtoSpan.setSpan(span, 0, 2, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        private float getAmbientTimeBaseline(int height) {
+            return height / 2 + mAmbientTimePaint.descent();
+        }
 
-            // Span to set text color to some RGB value
-             ForegroundColorSpan fcs = new ForegroundColorSpan(Color.WHITE);
-            // Span to make text bold
-             StyleSpan bss = new StyleSpan(android.graphics.Typeface.BOLD);
-            String m=formatTemperature(isMetric, maxTemp);
-            wordtoSpan.setSpan(fcs, 6, 6+m.length(), Spannable.SPAN_INCLUSIVE_INCLUSIVE);
-            // make them also bold
-            wordtoSpan.setSpan(bss, 6, 6+m.length(), Spannable.SPAN_INCLUSIVE_INCLUSIVE);
+        /**
+         * Renders the parts of the ambient face that don't change every minute, the background,
+         * date and temperatures, into {@link #mAmbientFrame}.  Called when one of them changes,
+         * when the surface changes size, or when the ambient properties of the display do.
+         */
+        private void renderAmbientFrame(int width, int height) {
+            if (mAmbientFrame == null || mAmbientFrame.getWidth() != width
+                    || mAmbientFrame.getHeight() != height) {
+                if (mAmbientFrame != null) {
+                    mAmbientFrame.recycle();
+                }
+                mAmbientFrame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mAmbientCanvas = new Canvas(mAmbientFrame);
+            }
+            mAmbientCanvas.drawColor(Color.BLACK);
+
+            float centerX = width / 2f;
+            float yOffset = getAmbientTimeBaseline(height) + mAmbientDatePaint.getTextSize()
+                    + mDateOffset;
+            mAmbientCanvas.drawText(mDateText, centerX, yOffset, mAmbientDatePaint);
+            if (dataLoaded) {
+                // Text only: the icons are too bright to leave on screen
+                mAmbientCanvas.drawText(formatTemperature(isMetric, maxTemp) + " "
+                                + formatTemperature(isMetric, minTemp), centerX,
+                        yOffset + mWeatherOffset, mAmbientDatePaint);
+            }
+        }
+
+        /**
+         * Sets up the ambient paints for the display's ambient properties.  Low-bit displays get
+         * pure white without anti-aliasing; displays that need burn-in protection get the time
+         * in outline, so that few pixels stay lit.
+         */
+        private void updateAmbientPaints() {
+            mAmbientTimePaint.setAntiAlias(!mLowBitAmbient);
+            mAmbientTimePaint.setStyle(mBurnInProtection ? Paint.Style.STROKE : Paint.Style.FILL);
+            mAmbientDatePaint.setAntiAlias(!mLowBitAmbient);
+            mAmbientDatePaint.setColor(mLowBitAmbient ? Color.WHITE : Color.GRAY);
+            mAmbientMinute = NO_MINUTE;
+            discardAmbientFrame();
+        }
 
-            StaticLayout layout = new StaticLayout(wordtoSpan, mTemperaturePaint, canvas.getWidth(), Layout.Alignment.ALIGN_CENTER, 1, 0, false);
-            canvas.save();
-            canvas.translate(0,yOffset);
-            layout.draw(canvas);
-            canvas.restore();
-            return layout.getHeight();
+        private void discardAmbientFrame() {
+            if (mAmbientFrame != null) {
+                mAmbientFrame.recycle();
+                mAmbientFrame = null;
+                mAmbientCanvas = null;
+            }
         }
 
+        private float drawTime(Canvas canvas, float centerX) {
+            // The hours are bold
+            int restLength = mShowSeconds ? 6 : 3;
+            int time = mTime.get(Calendar.HOUR_OF_DAY) * 60 + mTime.get(Calendar.MINUTE);
+            if (mShowSeconds) {
+                time = time * 60 + mTime.get(Calendar.SECOND);
+            }
+            if (time != mMeasuredTime) {
+                measureTime(time, restLength);
+            }
+            float x = centerX - (mHoursWidth + mTimeRestWidth) / 2;
+            float baseline = mYOffset + mTimeBaseline;
+            canvas.drawText(mTimeChars, 0, 2, x, baseline, mHoursPaint);
+            canvas.drawText(mTimeChars, 2, restLength, x + mHoursWidth, baseline, mTimePaint);
+            return mTimeLineHeight;
+        }
+
+        /**
+         * Measures the interactive time.  Only called when the characters shown change; every
+         * other frame reuses the widths.
+         */
+        private void measureTime(int time, int restLength) {
+            mMeasuredTime = time;
+            mHoursWidth = mHoursPaint.measureText(mTimeChars, 0, 2);
+            mTimeRestWidth = mTimePaint.measureText(mTimeChars, 2, restLength);
+        }
+
+        private float drawWeather(Canvas canvas, float centerX, float yOffset) {
+            if (!mWeatherMeasured) {
+                measureWeather();
+            }
+            int iconSize = mIconAtlas.getCellSize();
+            float x = centerX - (iconSize + mIconGap + mHighWidth + mTemperatureGap + mLowWidth) / 2;
+            float baseline = yOffset + mTemperatureBaseline;
+            // Centre the icon on the text
+            mIconAtlas.draw(canvas, mIconBucket, x,
+                    baseline - mTemperatureCenter - iconSize / 2f);
+            x += iconSize + mIconGap;
+            canvas.drawText(mHighText, x, baseline, mHighPaint);
+            x += mHighWidth + mTemperatureGap;
+            canvas.drawText(mLowText, x, baseline, mLowPaint);
+            return Math.max(iconSize, mTemperatureLineHeight);
+        }
+
+        /**
+         * Formats and measures the temperatures.  Only called when the weather changes; every
+         * other frame draws the cached text.
+         */
+        private void measureWeather() {
+            mIconBucket = IconAtlas.getBucket(weatherId);
+            mHighText = formatTemperature(isMetric, maxTemp);
+            mLowText = formatTemperature(isMetric, minTemp);
+            mHighWidth = mHighPaint.measureText(mHighText);
+            mLowWidth = mLowPaint.measureText(mLowText);
+            mWeatherMeasured = true;
+        }
 
         private Paint createTextPaint(int textColor) {
             Paint paint = new Paint();
@@ -410,6 +644,19 @@ public class WearWatchFace extends CanvasWatchFaceService {
             WearWatchFace.this.unregisterReceiver(mTimeZoneReceiver);
         }
 
+        @Override
+        public void onSurfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            super.onSurfaceChanged(holder, format, width, height);
+            // Small enough for the weather line to fit across the smallest faces
+            int cellSize = Math.min(iconSize, Math.min(width, height) / 8);
+            if (mIconAtlas == null || mIconAtlas.getCellSize() != cellSize) {
+                if (mIconAtlas != null) {
+                    mIconAtlas.recycle();
+                }
+                mIconAtlas = new IconAtlas(getResources(), cellSize);
+            }
+        }
+
         @Override
         public void onApplyWindowInsets(WindowInsets insets) {
             super.onApplyWindowInsets(insets);
@@ -425,9 +672,6 @@ public class WearWatchFace extends CanvasWatchFaceService {
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mTimePaint.setAntiAlias(!inAmbientMode);
-                }
                 invalidate();
             }
 
@@ -440,15 +684,32 @@ public class WearWatchFace extends CanvasWatchFaceService {
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
+            updateAmbientPaints();
         }
 
         @Override
         public void onTimeTick() {
             super.onTimeTick();
-            invalidate();
+            mFrameStats.onWakeup();
+            // While the timer runs it has already woken the face for this minute
+            if (!shouldTimerBeRunning()) {
+                invalidate();
+            }
         }
 
-
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            if (!KEY_SHOW_SECONDS.equals(key)) {
+                return;
+            }
+            mShowSeconds = prefs.getBoolean(KEY_SHOW_SECONDS,
+                    getResources().getBoolean(R.bool.show_seconds));
+            // Seconds and minutes of the day overlap, so measure whatever is shown next
+            mMeasuredTime = NO_TIME;
+            invalidate();
+            updateTimer();
+        }
 
         @Override
         public void onVisibilityChanged(boolean visible) {
@@ -457,15 +718,16 @@ public class WearWatchFace extends CanvasWatchFaceService {
             if (visible) {
                 Log.d(TAG, "visible");
                 registerReceiver();
-                mGoogleApiClient.connect();
+                if (!mGoogleApiClient.isConnected() && !mGoogleApiClient.isConnecting()) {
+                    // Only if the connection failed; it is otherwise kept while invisible
+                    mGoogleApiClient.connect();
+                }
                 // Update time zone in case it changed while we weren't visible.
                 mTime.clear(Calendar.ZONE_OFFSET);
                 mTime.setTimeInMillis(System.currentTimeMillis());
             } else {
                 Log.d(TAG, "invisible");
                 unregisterReceiver();
-                Wearable.DataApi.removeListener(mGoogleApiClient, this);
-                mGoogleApiClient.disconnect();
             }
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -486,72 +748,27 @@ public class WearWatchFace extends CanvasWatchFaceService {
 
         /**
          * Returns whether the {@link #mUpdateTimeHandler} timer should be running. The timer should
-         * only run when we're visible and in interactive mode.
+         * only run when we're visible and in interactive mode, showing seconds.  Everything else
+         * on the face, the date and the day's forecast included, changes on the minute, which
+         * onTimeTick already wakes the face for.
          */
         private boolean shouldTimerBeRunning() {
-            return isVisible() && !isInAmbientMode();
+            return mShowSeconds && isVisible() && !isInAmbientMode();
         }
 
         /**
-         * Handle updating the time periodically in interactive mode.
+         * Handle updating the time periodically in interactive mode, on the next second.
          */
         private void handleUpdateTimeMessage() {
+            mFrameStats.onWakeup();
             invalidate();
             if (shouldTimerBeRunning()) {
                 long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
-                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
+                mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME,
+                        SECOND_IN_MILLIS - timeMs % SECOND_IN_MILLIS);
             }
         }
 
-        private Bitmap getWeatherIcon(int weatherId) {
-            if (!iconsMap.containsKey(weatherId)) {
-                Bitmap bitmap=BitmapFactory.decodeResource(
-                        getResources(),
-                        getIconResourceForWeatherCondition(weatherId)
-                );
-                int height=getResources().getDimensionPixelSize(R.dimen.date_text_size);
-                int width=bitmap.getWidth()/bitmap.getHeight()*height;
-                Bitmap scaled=Bitmap.createScaledBitmap(bitmap,width,height,true);
-
-                iconsMap.put(weatherId,
-                        scaled);
-            }
-            return iconsMap.get(weatherId);
-        }
-
-
-        private int getIconResourceForWeatherCondition(int weatherId) {
-            // Based on weather code data found at:
-            // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-            if (weatherId >= 200 && weatherId <= 232) {
-                return R.drawable.ic_storm;
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                return R.drawable.ic_light_rain;
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                return R.drawable.ic_rain;
-            } else if (weatherId == 511) {
-                return R.drawable.ic_snow;
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                return R.drawable.ic_rain;
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                return R.drawable.ic_snow;
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                return R.drawable.ic_fog;
-            } else if (weatherId == 761 || weatherId == 781) {
-                return R.drawable.ic_storm;
-            } else if (weatherId == 800) {
-                return R.drawable.ic_clear;
-            } else if (weatherId == 801) {
-                return R.drawable.ic_light_clouds;
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                return R.drawable.ic_cloudy;
-            }
-            return -1;
-        }
-
-
         @Override
         public void onDataChanged(DataEventBuffer dataEventBuffer) {
             Log.d(TAG, "Data changed");
@@ -559,7 +776,7 @@ public class WearWatchFace extends CanvasWatchFaceService {
                 Uri uri = event.getDataItem().getUri();
                 String path = uri.getPath();
                 Log.d(TAG, "Event " + path);
-                if (path.equals("/weather")) {
+                if (path.equals(FORECAST_PATH)) {
                     updateWeatherFromDataItem(event.getDataItem());
                 }
             }
@@ -567,46 +784,72 @@ public class WearWatchFace extends CanvasWatchFaceService {
         }
 
         private void updateWeatherFromDataItem(DataItem item) {
-            DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-            dataLoaded = true;
-            weatherId = dataMap.getInt(WEATHER_ID);
-            maxTemp = dataMap.getDouble(MAX_TEMPERATURE);
-            minTemp = dataMap.getDouble(MINIMUM_TEMPERATURE);
-            weatherDescription = dataMap.getString(DESCRIPTION);
-            isMetric = dataMap.getBoolean(IS_METRIC);
-
+            WatchForecast forecast;
+            try {
+                forecast = ForecastPayloadReader.read(item.getData(), mForecast);
+            } catch (IOException e) {
+                Log.e(TAG, "Unreadable forecast", e);
+                forecast = null;
+            }
+            if (forecast == null || forecast.getDayCount() == 0) {
+                // A delta against a forecast we don't have; ask for all of it
+                sendDataRequest();
+                return;
+            }
+            mForecastStore.save(forecast, System.currentTimeMillis());
+            showForecast(forecast);
         }
 
+        private void showForecast(WatchForecast forecast) {
+            mForecast = forecast;
+            isMetric = forecast.isMetric;
+            // The next frame picks today's forecast out of it
+            mShownEpochDay = NO_DAY;
+            invalidate();
+        }
 
-        private void sendDataRequest() {
-
-            if ((System.currentTimeMillis() - requestTime) < 2000) return;
-            if (!mGoogleApiClient.isConnected()) return;
-            requestTime = System.currentTimeMillis();
-            AsyncTask<Void, Void, Void> task = new AsyncTask<Void, Void, Void>() {
-                @Override
-                protected Void doInBackground(Void... params) {
-                    for (String node : getNodes()) {
-                        Log.d(TAG, "Sent update data request");
-                        Wearable.MessageApi.sendMessage(
-                                mGoogleApiClient, node, GET_LATEST_DATA, new byte[0]).setResultCallback(
-                                new ResultCallback<MessageApi.SendMessageResult>() {
-                                    @Override
-                                    public void onResult(MessageApi.SendMessageResult sendMessageResult) {
-                                        if (!sendMessageResult.getStatus().isSuccess()) {
-                                            Log.e(TAG, "Failed to send message with status code: "
-                                                    + sendMessageResult.getStatus().getStatusCode());
-                                        }
-                                    }
-                                }
-                        );
-                    }
-                    return null;
+        /**
+         * Shows the forecast for the given day, the first time a frame is drawn on it.  That is
+         * how the face rolls over to the next day's forecast at local midnight without asking
+         * the phone.
+         */
+        private void showDay(int epochDay) {
+            mShownEpochDay = epochDay;
+            WatchForecast.Day day = mForecast == null ? null : mForecast.getDayOn(epochDay);
+            if (day == null) {
+                dataLoaded = false;
+                if (mForecast != null) {
+                    // Every day we had is over
+                    sendDataRequest();
                 }
-            };
-            task.execute();
+            } else {
+                dataLoaded = true;
+                weatherId = day.weatherId;
+                maxTemp = day.maxTemp;
+                minTemp = day.minTemp;
+                weatherDescription = day.description;
+            }
+            // Measured again on the next frame
+            mWeatherMeasured = false;
+            discardAmbientFrame();
+        }
+
+        /**
+         * Returns the date {@link #mTime} falls on, in days since the epoch, local time.
+         */
+        private int getLocalEpochDay() {
+            long localMillis = mTime.getTimeInMillis() + mTime.get(Calendar.ZONE_OFFSET)
+                    + mTime.get(Calendar.DST_OFFSET);
+            return (int) Math.floor(localMillis / (double) DAY_IN_MILLIS);
+        }
 
 
+        /**
+         * Asks the phone for the forecast, unless a request is already on its way or waiting
+         * out a backoff.
+         */
+        private void sendDataRequest() {
+            mRequester.request(mForecast == null ? 0 : mForecast.version);
         }
     }
 